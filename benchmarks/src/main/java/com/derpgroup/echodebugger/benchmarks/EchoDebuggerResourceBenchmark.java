@@ -0,0 +1,107 @@
+package com.derpgroup.echodebugger.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.core.StreamingOutput;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amazon.speech.json.SpeechletRequestEnvelope;
+import com.derpgroup.echodebugger.configuration.MainConfig;
+import com.derpgroup.echodebugger.model.UserDaoLocalImpl;
+import com.derpgroup.echodebugger.resource.EchoDebuggerResource;
+
+/**
+ * Request hot paths through the resource: playing a response on the Echo, and uploading one
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx6g"})
+public class EchoDebuggerResourceBenchmark {
+
+	private static final int REQUEST_POOL_SIZE = 1024;
+
+	@Param({"1000", "100000", "1000000"})
+	public int userCount;
+
+	private File dataDirectory;
+	private UserDaoLocalImpl userDao;
+	private EchoDebuggerResource resource;
+	private SpeechletRequestEnvelope<?>[] echoRequests;
+	private String[] userIds;
+	private Map<String, Object>[] uploadBodies;
+	private int next;
+
+	@SuppressWarnings("unchecked")
+	@Setup(Level.Trial)
+	public void setup() throws IOException{
+		dataDirectory = Files.createTempDirectory("echodebugger-bench").toFile();
+		MainConfig config = SyntheticUsers.config(new File(dataDirectory, "users.json").getPath());
+
+		userDao = SyntheticUsers.open(config, userCount);
+
+		resource = new EchoDebuggerResource(config, null);
+		resource.setUserDao(userDao);
+
+		// Requests are parsed up front, Jersey has already done that by the time the resource is called
+		Random random = new Random(42);
+		echoRequests = new SpeechletRequestEnvelope<?>[REQUEST_POOL_SIZE];
+		userIds = new String[REQUEST_POOL_SIZE];
+		uploadBodies = new Map[REQUEST_POOL_SIZE];
+		for(int i = 0; i < REQUEST_POOL_SIZE; i++){
+			int userIndex = random.nextInt(userCount);
+			String echoId = SyntheticUsers.echoId(userIndex);
+			String json = SyntheticUsers.intentRequestJson(echoId, SyntheticUsers.DEFAULT_INTENT, Collections.<String,String>emptyMap());
+			echoRequests[i] = SpeechletRequestEnvelope.fromJson(json);
+			userIds[i] = userDao.getUserByEchoId(echoId).getId().toString();
+			uploadBodies[i] = SyntheticUsers.buildPayload(random.nextInt(16));
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException{
+		userDao.close();
+		FileUtils.deleteDirectory(dataDirectory);
+	}
+
+	@Benchmark
+	public Object handleEchoRequest() throws Exception{
+		int index = next++ & (REQUEST_POOL_SIZE - 1);
+		Object response = resource.handleEchoRequest(echoRequests[index]);
+
+		// Include the cost of writing the response out, as Jersey would
+		if(response instanceof StreamingOutput){
+			((StreamingOutput) response).write(new NullOutputStream());
+		}
+		return response;
+	}
+
+	@Benchmark
+	public Object saveResponseForUserId(){
+		int index = next++ & (REQUEST_POOL_SIZE - 1);
+		return resource.saveResponseForUserId(uploadBodies[index], userIds[index], SyntheticUsers.DEFAULT_INTENT);
+	}
+}
@@ -0,0 +1,137 @@
+package com.derpgroup.echodebugger.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.core.StreamingOutput;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amazon.speech.json.SpeechletRequestEnvelope;
+import com.derpgroup.echodebugger.configuration.MainConfig;
+import com.derpgroup.echodebugger.model.UserDaoLocalImpl;
+import com.derpgroup.echodebugger.resource.EchoDebuggerResource;
+
+/**
+ * Request latency while snapshots are being written. Compare the request percentiles of the flushUnderLoad group
+ * against requestsAlone: a flush should not show up in the request tail at all.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx6g"})
+public class FlushUnderLoadBenchmark {
+
+	private static final int REQUEST_POOL_SIZE = 1024;
+
+	@Param({"100000", "1000000"})
+	public int userCount;
+
+	private File dataDirectory;
+	private UserDaoLocalImpl userDao;
+	private EchoDebuggerResource resource;
+	private SpeechletRequestEnvelope<?>[] echoRequests;
+	private String[] userIds;
+	private Map<String, Object>[] uploadBodies;
+
+	@SuppressWarnings("unchecked")
+	@Setup(Level.Trial)
+	public void setup() throws IOException{
+		dataDirectory = Files.createTempDirectory("echodebugger-bench").toFile();
+		MainConfig config = SyntheticUsers.config(new File(dataDirectory, "users.json").getPath());
+
+		userDao = SyntheticUsers.open(config, userCount);
+
+		resource = new EchoDebuggerResource(config, null);
+		resource.setUserDao(userDao);
+
+		Random random = new Random(42);
+		echoRequests = new SpeechletRequestEnvelope<?>[REQUEST_POOL_SIZE];
+		userIds = new String[REQUEST_POOL_SIZE];
+		uploadBodies = new Map[REQUEST_POOL_SIZE];
+		for(int i = 0; i < REQUEST_POOL_SIZE; i++){
+			String echoId = SyntheticUsers.echoId(random.nextInt(userCount));
+			String json = SyntheticUsers.intentRequestJson(echoId, SyntheticUsers.DEFAULT_INTENT, Collections.<String,String>emptyMap());
+			echoRequests[i] = SpeechletRequestEnvelope.fromJson(json);
+			userIds[i] = userDao.getUserByEchoId(echoId).getId().toString();
+			uploadBodies[i] = SyntheticUsers.buildPayload(random.nextInt(16));
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException{
+		userDao.close();
+		FileUtils.deleteDirectory(dataDirectory);
+	}
+
+	@Benchmark
+	@Group("flushUnderLoad")
+	@GroupThreads(3)
+	public Object echoRequest() throws Exception{
+		return handleEchoRequest();
+	}
+
+	@Benchmark
+	@Group("flushUnderLoad")
+	@GroupThreads(1)
+	public Object upload(){
+		return saveResponse();
+	}
+
+	/**
+	 * Runs back to back. With the journal on, as shipped, this only writes a snapshot once the uploads above have
+	 * grown the journal past its compaction size.
+	 */
+	@Benchmark
+	@Group("flushUnderLoad")
+	@GroupThreads(1)
+	public void flush(){
+		userDao.saveUsersToFile();
+	}
+
+	@Benchmark
+	@Threads(3)
+	public Object requestsAlone() throws Exception{
+		return handleEchoRequest();
+	}
+
+	// Local helper functions
+	private Object handleEchoRequest() throws Exception{
+		int index = ThreadLocalRandom.current().nextInt(REQUEST_POOL_SIZE);
+		Object response = resource.handleEchoRequest(echoRequests[index]);
+		if(response instanceof StreamingOutput){
+			((StreamingOutput) response).write(new NullOutputStream());
+		}
+		return response;
+	}
+
+	private Object saveResponse(){
+		int index = ThreadLocalRandom.current().nextInt(REQUEST_POOL_SIZE);
+		return resource.saveResponseForUserId(uploadBodies[index], userIds[index], SyntheticUsers.DEFAULT_INTENT);
+	}
+}
@@ -0,0 +1,67 @@
+package com.derpgroup.echodebugger.benchmarks;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amazon.speech.json.SpeechletRequestEnvelope;
+import com.amazon.speech.speechlet.SpeechletRequest;
+import com.derpgroup.echodebugger.util.ResponderUtils;
+
+/**
+ * Per-request helpers, run for every upload and every Echo request
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponderUtilsBenchmark {
+
+	private Map<String, Object> payload;
+	private SpeechletRequest intentRequest;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException{
+		payload = SyntheticUsers.buildPayload(8);
+
+		Map<String, String> slots = new LinkedHashMap<>();
+		slots.put("Color", "blue");
+		slots.put("City", "seattle");
+		slots.put("Date", "2016-10-01");
+		String json = SyntheticUsers.intentRequestJson(SyntheticUsers.echoId(0), "FAVORITES", slots);
+		intentRequest = SpeechletRequestEnvelope.fromJson(json).getRequest();
+	}
+
+	@Benchmark
+	public int getLengthOfContent(){
+		return ResponderUtils.getLengthOfContent(payload);
+	}
+
+	/**
+	 * How getLengthOfContent used to measure, for comparison
+	 */
+	@Benchmark
+	public int getLengthBySerializing(){
+		return ResponderUtils.serialize(payload).length();
+	}
+
+	@Benchmark
+	public Map<String, String> getMessageAsMap(){
+		return ResponderUtils.getMessageAsMap(intentRequest);
+	}
+}
@@ -0,0 +1,99 @@
+package com.derpgroup.echodebugger.benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.derpgroup.echodebugger.model.ResponseTemplate;
+import com.derpgroup.echodebugger.model.SerializedContent;
+
+/**
+ * Filling a response's {slotName} placeholders on every Echo request: the compiled template against String.replace
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseTemplateBenchmark {
+
+	// Placeholders per text field, in each of the SSML, card and plain text
+	@Param({"1", "4"})
+	public int placeholders;
+
+	private Map<String, String> slots;
+	private String stored;
+	private SerializedContent content;
+	private ResponseTemplate template;
+
+	@Setup(Level.Trial)
+	public void setup(){
+		slots = new LinkedHashMap<>();
+		StringBuilder sentence = new StringBuilder();
+		for(int i = 0; i < placeholders; i++){
+			slots.put("Slot" + i, "value number " + i);
+			sentence.append(" and {Slot").append(i).append("}");
+		}
+
+		Map<String, Object> payload = SyntheticUsers.buildPayload(8);
+		@SuppressWarnings("unchecked")
+		Map<String, Object> response = (Map<String, Object>) payload.get("response");
+		@SuppressWarnings("unchecked")
+		Map<String, Object> outputSpeech = (Map<String, Object>) response.get("outputSpeech");
+		@SuppressWarnings("unchecked")
+		Map<String, Object> card = (Map<String, Object>) response.get("card");
+		outputSpeech.put("ssml", ((String) outputSpeech.get("ssml")).replace("<speak>", "<speak>You asked for" + sentence + ". "));
+		card.put("title", "You asked for" + sentence);
+		card.put("content", "You asked for" + sentence + ". " + card.get("content"));
+
+		content = SerializedContent.of(payload);
+		stored = new String(readAll(content), StandardCharsets.UTF_8);
+		template = ResponseTemplate.compile(content);
+	}
+
+	/**
+	 * Includes writing the rendered response out, which is when its bytes are copied
+	 */
+	@Benchmark
+	public int compiledTemplate() throws IOException{
+		ResponseTemplate.Rendered rendered = template.render(content, slots);
+		rendered.writeTo(NullOutputStream.NULL_OUTPUT_STREAM);
+		return rendered.getLength();
+	}
+
+	/**
+	 * Rendering without a compiled template, for comparison. It doesn't even escape the values.
+	 */
+	@Benchmark
+	public byte[] stringReplace(){
+		String rendered = stored;
+		for(Map.Entry<String, String> slot : slots.entrySet()){
+			rendered = rendered.replace("{" + slot.getKey() + "}", slot.getValue());
+		}
+		return rendered.getBytes(StandardCharsets.UTF_8);
+	}
+
+	// Local helper functions
+	private static byte[] readAll(SerializedContent content){
+		byte[] bytes = new byte[content.getByteCount()];
+		content.copyTo(0, bytes, 0, bytes.length);
+		return bytes;
+	}
+}
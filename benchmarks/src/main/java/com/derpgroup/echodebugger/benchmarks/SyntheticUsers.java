@@ -0,0 +1,154 @@
+package com.derpgroup.echodebugger.benchmarks;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.derpgroup.echodebugger.configuration.EchoDebuggerConfig;
+import com.derpgroup.echodebugger.configuration.MainConfig;
+import com.derpgroup.echodebugger.model.IntentResponses;
+import com.derpgroup.echodebugger.model.User;
+import com.derpgroup.echodebugger.model.UserDao;
+import com.derpgroup.echodebugger.model.UserDaoLocalImpl;
+
+/**
+ * Builds synthetic user populations and Alexa payloads for the benchmarks
+ */
+public class SyntheticUsers {
+
+	public static final String DEFAULT_INTENT = "GETRESPONSE";
+	public static final int MAX_ALLOWED_RESPONSE_LENGTH = 10000;
+	private static final int PAYLOAD_VARIANTS = 16;
+	private static final long JOURNAL_COMPACTION_SIZE = 64L * 1024 * 1024;
+
+	private static final List<Map<String, Object>> PAYLOADS = new ArrayList<>();
+	static {
+		for(int i = 0; i < PAYLOAD_VARIANTS; i++){
+			PAYLOADS.add(buildPayload(i));
+		}
+	}
+
+	/**
+	 * The shipped configuration: journaled, with the journal next to the content file
+	 */
+	public static MainConfig config(String contentFile){
+		EchoDebuggerConfig echoDebuggerConfig = new EchoDebuggerConfig();
+		echoDebuggerConfig.setPassword("password");
+		echoDebuggerConfig.setMaxAllowedResponseLength(MAX_ALLOWED_RESPONSE_LENGTH);
+		echoDebuggerConfig.setDebugMode(false);
+		echoDebuggerConfig.setContentFile(contentFile);
+		echoDebuggerConfig.setJournalFile(contentFile + ".journal");
+		echoDebuggerConfig.setJournalCompactionSize(JOURNAL_COMPACTION_SIZE);
+		echoDebuggerConfig.setSaveRate(60);
+		echoDebuggerConfig.setBaseUrl("http://localhost:8080/");
+
+		MainConfig config = new MainConfig();
+		config.setEchoDebuggerConfig(echoDebuggerConfig);
+		return config;
+	}
+
+	public static String echoId(int index){
+		return String.format("amzn1.ask.account.AFP3ZWPOS2BGJR7OWJZ3DHPKMOMNWY4AY66FUR7ILBWANIHQN73QG%07d", index);
+	}
+
+	/**
+	 * Creates userCount users, each with an uploaded response for the default intent.
+	 * The payloads are shared between users to keep large populations within a reasonable heap.
+	 */
+	public static List<User> populate(UserDao userDao, int userCount){
+		List<User> users = new ArrayList<>(userCount);
+		for(int i = 0; i < userCount; i++){
+			User user = userDao.createUser(echoId(i));
+			IntentResponses intentResponses = new IntentResponses();
+			intentResponses.setIntentName(DEFAULT_INTENT);
+			intentResponses.setData(payload(i));
+			user.putIntent(DEFAULT_INTENT, intentResponses);
+			user.setLastUploadTime(user.getCreationTime());
+			users.add(user);
+		}
+		return users;
+	}
+
+	/**
+	 * Opens a DAO with userCount users already in its snapshot, as after a restart. The users are written with the
+	 * journal off, since creating a large population one fsynced record at a time would take far longer than the benchmark.
+	 */
+	public static UserDaoLocalImpl open(MainConfig config, int userCount){
+		EchoDebuggerConfig echoDebuggerConfig = config.getEchoDebuggerConfig();
+		String journalFile = echoDebuggerConfig.getJournalFile();
+		echoDebuggerConfig.setJournalFile(null);
+		UserDaoLocalImpl loader = new UserDaoLocalImpl(config, null);
+		loader.initialize();
+		populate(loader, userCount);
+		loader.saveUsersToFile();
+		loader.close();
+		echoDebuggerConfig.setJournalFile(journalFile);
+
+		UserDaoLocalImpl userDao = new UserDaoLocalImpl(config, null);
+		userDao.initialize();
+		return userDao;
+	}
+
+	public static Map<String, Object> payload(int index){
+		return PAYLOADS.get(index % PAYLOAD_VARIANTS);
+	}
+
+	/**
+	 * A typical mock response: SSML speech of a few thousand characters, a card, and session attributes
+	 */
+	public static Map<String, Object> buildPayload(int variant){
+		StringBuilder ssml = new StringBuilder("<speak>");
+		StringBuilder text = new StringBuilder();
+		for(int i = 0; i < 20 + variant; i++){
+			ssml.append("<p>Sentence number ").append(i).append(" of the mock response, <break time=\"300ms\"/> with <emphasis level=\"strong\">emphasis</emphasis> and a <phoneme alphabet=\"ipa\" ph=\"pɪˈkɑːn\">pecan</phoneme>.</p>");
+			text.append("Sentence number ").append(i).append(" of the mock response.\n");
+		}
+		ssml.append("</speak>");
+
+		Map<String, Object> outputSpeech = new LinkedHashMap<>();
+		outputSpeech.put("type", "SSML");
+		outputSpeech.put("ssml", ssml.toString());
+
+		Map<String, Object> card = new LinkedHashMap<>();
+		card.put("type", "Simple");
+		card.put("title", "Mock response "+variant);
+		card.put("content", text.toString());
+
+		Map<String, Object> response = new LinkedHashMap<>();
+		response.put("outputSpeech", outputSpeech);
+		response.put("card", card);
+		response.put("reprompt", null);
+		response.put("shouldEndSession", true);
+
+		Map<String, Object> sessionAttributes = new LinkedHashMap<>();
+		sessionAttributes.put("variant", variant);
+
+		Map<String, Object> body = new LinkedHashMap<>();
+		body.put("version", "1.0");
+		body.put("response", response);
+		body.put("sessionAttributes", sessionAttributes);
+		return body;
+	}
+
+	/**
+	 * The JSON Amazon sends for an IntentRequest
+	 */
+	public static String intentRequestJson(String echoId, String intentName, Map<String, String> slots){
+		StringBuilder slotJson = new StringBuilder();
+		for(Entry<String, String> slot : slots.entrySet()){
+			if(slotJson.length() > 0){slotJson.append(',');}
+			slotJson.append("\"").append(slot.getKey()).append("\":{\"name\":\"").append(slot.getKey())
+				.append("\",\"value\":\"").append(slot.getValue()).append("\"}");
+		}
+
+		return "{\"version\":\"1.0\","
+				+ "\"session\":{\"new\":false,\"sessionId\":\"SessionId.6a4789b3-9a27-4c8a-b3b1-1b56e3f3a4b6\","
+				+ "\"application\":{\"applicationId\":\"amzn1.ask.skill.9a6a7e0c-9b5e-4c4d-8bc3-63b1f1f1f1f1\"},"
+				+ "\"attributes\":{},\"user\":{\"userId\":\""+echoId+"\"}},"
+				+ "\"request\":{\"type\":\"IntentRequest\",\"requestId\":\"EdwRequestId.0f5d6c1c-1f6e-4a3e-9a36-6f5c2b0b8f0e\","
+				+ "\"timestamp\":\"2016-10-01T00:00:00Z\",\"locale\":\"en-US\","
+				+ "\"intent\":{\"name\":\""+intentName+"\",\"slots\":{"+slotJson+"}}}}";
+	}
+}
@@ -0,0 +1,107 @@
+package com.derpgroup.echodebugger.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.derpgroup.echodebugger.benchmarks.SyntheticUsers;
+import com.derpgroup.echodebugger.configuration.MainConfig;
+
+/**
+ * Persistence costs of the local DAO. This lives in the model package so it can reach readUsersFromFile.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx6g"})
+public class UserDaoLocalImplBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class SaveState {
+		@Param({"1000", "100000", "1000000"})
+		public int userCount;
+
+		// 0 writes the single content file
+		@Param({"0", "64"})
+		public int segmentCount;
+
+		File dataDirectory;
+		UserDaoLocalImpl userDao;
+		List<User> users;
+		int next;
+
+		@Setup(Level.Trial)
+		public void setup() throws IOException{
+			dataDirectory = Files.createTempDirectory("echodebugger-bench").toFile();
+			MainConfig config = SyntheticUsers.config(new File(dataDirectory, "users.json").getPath());
+			config.getEchoDebuggerConfig().setSegmentCount(segmentCount);
+			// Measures the snapshot write itself, which the journal would put off until compaction
+			config.getEchoDebuggerConfig().setJournalFile(null);
+			userDao = new UserDaoLocalImpl(config, null);
+			userDao.initialize();
+			users = SyntheticUsers.populate(userDao, userCount);
+			userDao.saveUsersToFile();
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() throws IOException{
+			userDao.close();
+			FileUtils.deleteDirectory(dataDirectory);
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class ReadState {
+		@Param({"1000", "100000", "1000000"})
+		public int userCount;
+
+		File dataDirectory;
+		String contentFile;
+		UserDaoLocalImpl userDao;
+
+		@Setup(Level.Trial)
+		public void setup() throws IOException{
+			dataDirectory = Files.createTempDirectory("echodebugger-bench").toFile();
+			contentFile = new File(dataDirectory, "users.json").getPath();
+			userDao = SyntheticUsers.open(SyntheticUsers.config(contentFile), userCount);
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() throws IOException{
+			userDao.close();
+			FileUtils.deleteDirectory(dataDirectory);
+		}
+	}
+
+	/**
+	 * One periodic save after a single user has changed
+	 */
+	@Benchmark
+	public void saveUsersToFile(SaveState state){
+		state.userDao.saveUser(state.users.get(state.next++ % state.users.size()));
+		state.userDao.saveUsersToFile();
+	}
+
+	@Benchmark
+	public List<User> readUsersFromFile(ReadState state) throws IOException{
+		return state.userDao.readUsersFromFile(state.contentFile);
+	}
+}
@@ -26,10 +26,18 @@ import io.dropwizard.setup.Environment;
 
 import java.io.IOException;
 
+import com.derpgroup.echodebugger.commands.ConvertSnapshotCommand;
 import com.derpgroup.echodebugger.configuration.MainConfig;
 import com.derpgroup.echodebugger.health.BasicHealthCheck;
-import com.derpgroup.echodebugger.jobs.UserDaoLocalImplThread;
+import com.derpgroup.echodebugger.health.FlushLagHealthCheck;
+import com.derpgroup.echodebugger.health.HeapHealthCheck;
+import com.derpgroup.echodebugger.health.InitializationHealthCheck;
+import com.derpgroup.echodebugger.jobs.PersistenceScheduler;
+import com.derpgroup.echodebugger.logger.EchoDebuggerLogger;
+import com.derpgroup.echodebugger.model.UserDao;
 import com.derpgroup.echodebugger.model.UserDaoLocalImpl;
+import com.derpgroup.echodebugger.model.UserDaoMVStoreImpl;
+import com.derpgroup.echodebugger.model.UserDaoType;
 import com.derpgroup.echodebugger.providers.ResponderExceptionMapper;
 import com.derpgroup.echodebugger.resource.EchoDebuggerResource;
 import com.fasterxml.jackson.databind.DeserializationFeature;
@@ -52,6 +60,7 @@ public class App extends Application<MainConfig> {
 	@Override
 	public void initialize(Bootstrap<MainConfig> bootstrap) {
 		bootstrap.getObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+		bootstrap.addCommand(new ConvertSnapshotCommand());
 	}
 
 	@Override
@@ -64,16 +73,33 @@ public class App extends Application<MainConfig> {
 			mapper.configure( SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false );
 		}
 
+		// Writes metrics events in the background, and flushes any still queued on shutdown
+		environment.lifecycle().manage(EchoDebuggerLogger.getEventLogger());
+
 		// Health checks
 		environment.healthChecks().register("basics", new BasicHealthCheck(config, environment));
+		environment.healthChecks().register("heap", new HeapHealthCheck(config));
 
 		// Load up the content
-		UserDaoLocalImpl userDao = new UserDaoLocalImpl(config, environment);
-		userDao.initialize();
+		UserDao userDao;
+		if(config.getUserDaoType() == UserDaoType.MVSTORE){
+			UserDaoMVStoreImpl mvStoreDao = new UserDaoMVStoreImpl(config, environment);
+			mvStoreDao.initialize();
+			environment.lifecycle().manage(mvStoreDao);
+			userDao = mvStoreDao;
+		}
+		else{
+			UserDaoLocalImpl localDao = new UserDaoLocalImpl(config, environment);
+			localDao.initialize();
+
+			// Saves data every X minutes, and once more on shutdown
+			PersistenceScheduler persistenceScheduler = new PersistenceScheduler(config, localDao, environment.metrics());
+			environment.lifecycle().manage(persistenceScheduler);
+			environment.healthChecks().register("flushLag", new FlushLagHealthCheck(config, persistenceScheduler));
+			userDao = localDao;
+		}
 
-		// Build the helper thread that saves data every X minutes
-		UserDaoLocalImplThread userThread = new UserDaoLocalImplThread(config, userDao);
-		userThread.start();
+		environment.healthChecks().register("initialization", new InitializationHealthCheck(userDao));
 
 		EchoDebuggerResource debuggerResource = new EchoDebuggerResource(config, environment);
 		debuggerResource.setUserDao(userDao);
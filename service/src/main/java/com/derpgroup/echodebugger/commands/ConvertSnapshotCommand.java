@@ -0,0 +1,77 @@
+package com.derpgroup.echodebugger.commands;
+
+import io.dropwizard.cli.Command;
+import io.dropwizard.setup.Bootstrap;
+
+import java.io.File;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.sourceforge.argparse4j.inf.Namespace;
+import net.sourceforge.argparse4j.inf.Subparser;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.derpgroup.echodebugger.model.SnapshotFormat;
+import com.derpgroup.echodebugger.model.UserFileReader;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Converts a user snapshot file between formats, e.g.
+ * java -jar echodebugger-service.jar convert-snapshot --from JSON --to SMILE users.json users.smile
+ *
+ * Users are streamed through one at a time, so this works on snapshots larger than the heap.
+ * Segment files can be converted one at a time, they share the same layout.
+ */
+public class ConvertSnapshotCommand extends Command {
+	private final Logger LOG = LoggerFactory.getLogger(ConvertSnapshotCommand.class);
+
+	public ConvertSnapshotCommand(){
+		super("convert-snapshot", "Converts a user snapshot file between the JSON and SMILE formats");
+	}
+
+	@Override
+	public void configure(Subparser subparser){
+		subparser.addArgument("--from")
+			.dest("from")
+			.type(SnapshotFormat.class)
+			.setDefault(SnapshotFormat.JSON)
+			.help("format of the input file");
+		subparser.addArgument("--to")
+			.dest("to")
+			.type(SnapshotFormat.class)
+			.setDefault(SnapshotFormat.SMILE)
+			.help("format of the output file");
+		subparser.addArgument("input")
+			.help("snapshot file to read");
+		subparser.addArgument("output")
+			.help("file to write the converted snapshot to");
+	}
+
+	@Override
+	public void run(Bootstrap<?> bootstrap, Namespace namespace) throws Exception{
+		SnapshotFormat from = namespace.get("from");
+		SnapshotFormat to = namespace.get("to");
+		String input = namespace.getString("input");
+		String output = namespace.getString("output");
+
+		ObjectMapper writer = to.createMapper();
+		AtomicInteger count = new AtomicInteger();
+		try(JsonGenerator generator = writer.getFactory().createGenerator(new File(output), JsonEncoding.UTF8)){
+			generator.writeStartArray();
+			new UserFileReader(from.createMapper()).read(Paths.get(input), user -> {
+				try {
+					writer.writeValue(generator, user);
+				} catch (Exception e) {
+					throw new IllegalStateException("Could not write user ("+user.getEchoId()+")", e);
+				}
+				count.incrementAndGet();
+			});
+			generator.writeEndArray();
+		}
+		LOG.info("Converted "+count.get()+" users from "+input+" ("+from+") to "+output+" ("+to+")");
+	}
+}
@@ -1,18 +1,39 @@
 package com.derpgroup.echodebugger.configuration;
 
+import com.derpgroup.echodebugger.model.SnapshotFormat;
+
 public class EchoDebuggerConfig {
   private String password;
   private Integer maxAllowedResponseLength;
+  private Integer maxUploadEntries;
   private Boolean debugMode;
   private String contentFile;
   private Integer saveRate;
   private String baseUrl;
   private String introPage;
+  private String journalFile;
+  private Long journalCompactionSize;
+  private Integer segmentCount;
+  private SnapshotFormat snapshotFormat;
+  private Integer snapshotGenerations;
+  private Long snapshotWriteRate;
+  private String payloadStoreFile;
+  private Long payloadStoreMaxBytes;
+  private Integer hotUserLimit;
+  private String mvStoreFile;
+  private Long groupCommitWindowMillis;
+  private Integer groupCommitMaxBatch;
+  private Integer flushDirtyUserThreshold;
+  private Long storageLatencyThresholdMillis;
+  private Long maxFlushLagSeconds;
+  private Integer maxHeapUsedPercent;
 
   public String getPassword() {return password;}
   public void setPassword(String password) {this.password = password;}
   public Integer getMaxAllowedResponseLength() {return maxAllowedResponseLength;}
   public void setMaxAllowedResponseLength(Integer maxAllowedResponseLength) {this.maxAllowedResponseLength = maxAllowedResponseLength;}
+  public Integer getMaxUploadEntries() {return maxUploadEntries;}
+  public void setMaxUploadEntries(Integer maxUploadEntries) {this.maxUploadEntries = maxUploadEntries;}
   public Boolean getDebugMode() {return debugMode;}
   public void setDebugMode(Boolean debugMode) {this.debugMode = debugMode;}
   public String getContentFile() {return contentFile;}
@@ -23,4 +44,36 @@ public class EchoDebuggerConfig {
   public void setBaseUrl(String baseUrl) {this.baseUrl = baseUrl;}
   public String getIntroPage() {return introPage;}
   public void setIntroPage(String introPage) {this.introPage = introPage;}
+  public String getJournalFile() {return journalFile;}
+  public void setJournalFile(String journalFile) {this.journalFile = journalFile;}
+  public Long getJournalCompactionSize() {return journalCompactionSize;}
+  public void setJournalCompactionSize(Long journalCompactionSize) {this.journalCompactionSize = journalCompactionSize;}
+  public Integer getSegmentCount() {return segmentCount;}
+  public void setSegmentCount(Integer segmentCount) {this.segmentCount = segmentCount;}
+  public SnapshotFormat getSnapshotFormat() {return snapshotFormat;}
+  public void setSnapshotFormat(SnapshotFormat snapshotFormat) {this.snapshotFormat = snapshotFormat;}
+  public Integer getSnapshotGenerations() {return snapshotGenerations;}
+  public void setSnapshotGenerations(Integer snapshotGenerations) {this.snapshotGenerations = snapshotGenerations;}
+  public Long getSnapshotWriteRate() {return snapshotWriteRate;}
+  public void setSnapshotWriteRate(Long snapshotWriteRate) {this.snapshotWriteRate = snapshotWriteRate;}
+  public String getPayloadStoreFile() {return payloadStoreFile;}
+  public void setPayloadStoreFile(String payloadStoreFile) {this.payloadStoreFile = payloadStoreFile;}
+  public Long getPayloadStoreMaxBytes() {return payloadStoreMaxBytes;}
+  public void setPayloadStoreMaxBytes(Long payloadStoreMaxBytes) {this.payloadStoreMaxBytes = payloadStoreMaxBytes;}
+  public Integer getHotUserLimit() {return hotUserLimit;}
+  public void setHotUserLimit(Integer hotUserLimit) {this.hotUserLimit = hotUserLimit;}
+  public String getMvStoreFile() {return mvStoreFile;}
+  public void setMvStoreFile(String mvStoreFile) {this.mvStoreFile = mvStoreFile;}
+  public Long getGroupCommitWindowMillis() {return groupCommitWindowMillis;}
+  public void setGroupCommitWindowMillis(Long groupCommitWindowMillis) {this.groupCommitWindowMillis = groupCommitWindowMillis;}
+  public Integer getGroupCommitMaxBatch() {return groupCommitMaxBatch;}
+  public void setGroupCommitMaxBatch(Integer groupCommitMaxBatch) {this.groupCommitMaxBatch = groupCommitMaxBatch;}
+  public Integer getFlushDirtyUserThreshold() {return flushDirtyUserThreshold;}
+  public void setFlushDirtyUserThreshold(Integer flushDirtyUserThreshold) {this.flushDirtyUserThreshold = flushDirtyUserThreshold;}
+  public Long getStorageLatencyThresholdMillis() {return storageLatencyThresholdMillis;}
+  public void setStorageLatencyThresholdMillis(Long storageLatencyThresholdMillis) {this.storageLatencyThresholdMillis = storageLatencyThresholdMillis;}
+  public Long getMaxFlushLagSeconds() {return maxFlushLagSeconds;}
+  public void setMaxFlushLagSeconds(Long maxFlushLagSeconds) {this.maxFlushLagSeconds = maxFlushLagSeconds;}
+  public Integer getMaxHeapUsedPercent() {return maxHeapUsedPercent;}
+  public void setMaxHeapUsedPercent(Integer maxHeapUsedPercent) {this.maxHeapUsedPercent = maxHeapUsedPercent;}
 }
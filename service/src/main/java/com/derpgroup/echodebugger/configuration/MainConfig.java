@@ -22,6 +22,7 @@ package com.derpgroup.echodebugger.configuration;
 
 import io.dropwizard.Configuration;
 
+import com.derpgroup.echodebugger.model.UserDaoType;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 /**
@@ -33,6 +34,7 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 public class MainConfig extends Configuration {
   private boolean prettyPrint = true;
   private EchoDebuggerConfig echoDebuggerConfig;
+  private UserDaoType userDaoType = UserDaoType.LOCAL;
 
   @JsonProperty
   public boolean isPrettyPrint() {
@@ -53,4 +55,14 @@ public class MainConfig extends Configuration {
   public void setEchoDebuggerConfig(EchoDebuggerConfig echoDebuggerConfig) {
     this.echoDebuggerConfig = echoDebuggerConfig;
   }
+
+  @JsonProperty
+  public UserDaoType getUserDaoType() {
+    return userDaoType;
+  }
+
+  @JsonProperty
+  public void setUserDaoType(UserDaoType userDaoType) {
+    this.userDaoType = userDaoType;
+  }
 }
@@ -5,5 +5,10 @@ public enum ExceptionType {
 	REPEAT_QUERY_PARAMETER,
 	RESPONSE_TOO_LONG,
 	UNRECOGNIZED_ID,
-	NO_SAVED_RESPONSE
+	NO_SAVED_RESPONSE,
+	INVALID_RESPONSE,
+	INVALID_CURSOR,
+	PRECONDITION_FAILED,
+	NOT_SAVED,
+	UPLOAD_TOO_LARGE
 }
@@ -22,20 +22,77 @@ package com.derpgroup.echodebugger.health;
 
 import io.dropwizard.setup.Environment;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.StringUtils;
+
 import com.codahale.metrics.health.HealthCheck;
 import com.derpgroup.echodebugger.configuration.MainConfig;
+import com.derpgroup.echodebugger.model.UserDaoType;
 
 /**
  * Health check to verify that the local filesystem is writable.
+ * Writes and syncs a small file in the data directory, and fails if that takes longer than storageLatencyThresholdMillis.
+ * The result is reused for a few seconds, so frequent polling doesn't add a sync of its own every time.
  *
  * @author Rusty Gerard
  * @since 0.0.1
  */
 public class BasicHealthCheck extends HealthCheck {
-  public BasicHealthCheck(MainConfig config, Environment environment) {}
+  private static final String PROBE_FILE = ".healthcheck";
+  public static final long DEFAULT_STORAGE_LATENCY_THRESHOLD_MILLIS = 500;
+  private static final long PROBE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+  // Null when there's no data file configured to check next to
+  private final Path probeFile;
+  private final long latencyThresholdMillis;
+  private Result lastResult;
+  private long lastProbeNanos;
+
+  public BasicHealthCheck(MainConfig config, Environment environment) {
+    String dataFile = (config.getUserDaoType() == UserDaoType.MVSTORE)
+        ? config.getEchoDebuggerConfig().getMvStoreFile() : config.getEchoDebuggerConfig().getContentFile();
+    probeFile = StringUtils.isNotEmpty(dataFile) ? Paths.get(dataFile).toAbsolutePath().resolveSibling(PROBE_FILE) : null;
+    Long threshold = config.getEchoDebuggerConfig().getStorageLatencyThresholdMillis();
+    latencyThresholdMillis = (threshold != null) ? threshold : DEFAULT_STORAGE_LATENCY_THRESHOLD_MILLIS;
+  }
 
   @Override
-  protected Result check() throws Exception {
-    return Result.healthy();
+  protected synchronized Result check() throws Exception {
+    if(probeFile == null){
+      return Result.unhealthy("No data file is configured, so there is nowhere to check");
+    }
+    long now = System.nanoTime();
+    if(lastResult == null || now - lastProbeNanos >= PROBE_INTERVAL_NANOS){
+      lastResult = probe();
+      lastProbeNanos = now;
+    }
+    return lastResult;
+  }
+
+  // Local helper functions
+  private Result probe(){
+    byte[] probe = Long.toString(System.currentTimeMillis()).getBytes(StandardCharsets.UTF_8);
+    long start = System.nanoTime();
+    try (FileChannel channel = FileChannel.open(probeFile,
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      channel.write(ByteBuffer.wrap(probe));
+      channel.force(true);
+    } catch (IOException e) {
+      return Result.unhealthy("Could not write to "+probeFile.getParent()+": "+e);
+    }
+    long latencyMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+    if(latencyMillis > latencyThresholdMillis){
+      return Result.unhealthy("Writing to "+probeFile.getParent()+" took "+latencyMillis+"ms, over the limit of "+latencyThresholdMillis+"ms");
+    }
+    return Result.healthy("Writing to "+probeFile.getParent()+" took "+latencyMillis+"ms");
   }
 }
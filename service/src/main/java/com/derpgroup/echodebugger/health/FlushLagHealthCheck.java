@@ -0,0 +1,32 @@
+package com.derpgroup.echodebugger.health;
+
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.health.HealthCheck;
+import com.derpgroup.echodebugger.configuration.MainConfig;
+import com.derpgroup.echodebugger.jobs.PersistenceScheduler;
+
+/**
+ * Health check to verify that users are still being saved. Fails once changes have gone unsaved for longer than maxFlushLagSeconds.
+ */
+public class FlushLagHealthCheck extends HealthCheck {
+  public static final long DEFAULT_MAX_FLUSH_LAG_SECONDS = 900;
+
+  private final PersistenceScheduler scheduler;
+  private final long maxLagMillis;
+
+  public FlushLagHealthCheck(MainConfig config, PersistenceScheduler scheduler) {
+    this.scheduler = scheduler;
+    Long maxLagSeconds = config.getEchoDebuggerConfig().getMaxFlushLagSeconds();
+    maxLagMillis = TimeUnit.SECONDS.toMillis((maxLagSeconds != null) ? maxLagSeconds : DEFAULT_MAX_FLUSH_LAG_SECONDS);
+  }
+
+  @Override
+  protected Result check() throws Exception {
+    long lagMillis = System.currentTimeMillis() - scheduler.getLastSuccessfulFlushMillis();
+    if(lagMillis > maxLagMillis){
+      return Result.unhealthy("Users were last saved "+lagMillis/1000+" seconds ago, over the limit of "+maxLagMillis/1000+" seconds");
+    }
+    return Result.healthy("Users were last saved "+lagMillis/1000+" seconds ago");
+  }
+}
@@ -0,0 +1,47 @@
+package com.derpgroup.echodebugger.health;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+
+import com.codahale.metrics.health.HealthCheck;
+import com.derpgroup.echodebugger.configuration.MainConfig;
+
+/**
+ * Health check to verify that the heap isn't close to running out. Fails once the old generation is still more than
+ * maxHeapUsedPercent full after a garbage collection, since young garbage alone would make any heap look full.
+ */
+public class HeapHealthCheck extends HealthCheck {
+  public static final int DEFAULT_MAX_HEAP_USED_PERCENT = 90;
+
+  private final int maxUsedPercent;
+
+  public HeapHealthCheck(MainConfig config) {
+    Integer maxHeapUsedPercent = config.getEchoDebuggerConfig().getMaxHeapUsedPercent();
+    maxUsedPercent = (maxHeapUsedPercent != null) ? maxHeapUsedPercent : DEFAULT_MAX_HEAP_USED_PERCENT;
+  }
+
+  @Override
+  protected Result check() throws Exception {
+    long used = 0;
+    long max = 0;
+    for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()){
+      // Only the old generation supports usage thresholds, eden and survivor spaces are emptied by every collection
+      if(pool.getType() != MemoryType.HEAP || !pool.isUsageThresholdSupported()){continue;}
+      MemoryUsage afterCollection = pool.getCollectionUsage();
+      if(afterCollection == null || afterCollection.getMax() <= 0){continue;}
+      used += afterCollection.getUsed();
+      max += afterCollection.getMax();
+    }
+    if(max == 0){
+      return Result.healthy("The heap usage after collection isn't available");
+    }
+
+    long usedPercent = used * 100 / max;
+    if(usedPercent > maxUsedPercent){
+      return Result.unhealthy("The old generation is "+usedPercent+"% full after collection, over the limit of "+maxUsedPercent+"%");
+    }
+    return Result.healthy("The old generation is "+usedPercent+"% full after collection");
+  }
+}
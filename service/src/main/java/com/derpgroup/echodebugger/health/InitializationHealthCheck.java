@@ -0,0 +1,23 @@
+package com.derpgroup.echodebugger.health;
+
+import com.codahale.metrics.health.HealthCheck;
+import com.derpgroup.echodebugger.model.UserDao;
+
+/**
+ * Health check to verify that users were loaded. Until they are, nothing a user uploads can be saved.
+ */
+public class InitializationHealthCheck extends HealthCheck {
+  private final UserDao userDao;
+
+  public InitializationHealthCheck(UserDao userDao) {
+    this.userDao = userDao;
+  }
+
+  @Override
+  protected Result check() throws Exception {
+    if(!userDao.isInitialized()){
+      return Result.unhealthy("Users were not loaded, see the startup logs");
+    }
+    return Result.healthy();
+  }
+}
@@ -0,0 +1,172 @@
+package com.derpgroup.echodebugger.jobs;
+
+import io.dropwizard.lifecycle.Managed;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.derpgroup.echodebugger.configuration.MainConfig;
+import com.derpgroup.echodebugger.model.FlushStats;
+import com.derpgroup.echodebugger.model.UserDaoLocalImpl;
+
+/**
+ * This pairs with the UserDaoLocalImpl class, and saves user accounts to disk.
+ *
+ * Users are saved every saveRate seconds, or sooner once flushDirtyUserThreshold users have changed.
+ * A save that takes longer than the time between saves spaces the following saves out, until saves are quick again.
+ * Anything still unsaved is written when the server shuts down.
+ */
+public class PersistenceScheduler implements Managed {
+
+  private final Logger LOG = LoggerFactory.getLogger(PersistenceScheduler.class);
+  private static final long POLL_MILLIS = 1000;
+  private static final int DEFAULT_SAVE_RATE = 60;
+  private static final int MAX_BACKOFF = 8;
+  public static final int DEFAULT_FLUSH_DIRTY_USER_THRESHOLD = 10000;
+
+  private final UserDaoLocalImpl dao;
+  private final long saveIntervalMillis;
+  private final int flushDirtyUserThreshold;
+  private final ScheduledExecutorService executor;
+
+  private final Timer flushTimer;
+  private final Meter usersWritten;
+  private final Meter bytesWritten;
+  private final Meter flushFailures;
+
+  // Only used by the scheduler thread, and by stop() once that thread has finished
+  private long lastFlushMillis;
+  private long lastFlushDurationMillis;
+  private int backoff = 1;
+  // When the users on disk were last known to be up to date, read by the health check
+  private volatile long lastSuccessfulFlushMillis = System.currentTimeMillis();
+
+  public PersistenceScheduler(MainConfig config, UserDaoLocalImpl dao, MetricRegistry metrics){
+    this.dao = dao;
+    Integer saveRate = config.getEchoDebuggerConfig().getSaveRate();
+    saveIntervalMillis = TimeUnit.SECONDS.toMillis((saveRate != null) ? saveRate : DEFAULT_SAVE_RATE);
+    Integer threshold = config.getEchoDebuggerConfig().getFlushDirtyUserThreshold();
+    flushDirtyUserThreshold = (threshold != null) ? threshold : DEFAULT_FLUSH_DIRTY_USER_THRESHOLD;
+
+    flushTimer = metrics.timer(MetricRegistry.name(PersistenceScheduler.class, "flush"));
+    usersWritten = metrics.meter(MetricRegistry.name(PersistenceScheduler.class, "usersWritten"));
+    bytesWritten = metrics.meter(MetricRegistry.name(PersistenceScheduler.class, "bytesWritten"));
+    flushFailures = metrics.meter(MetricRegistry.name(PersistenceScheduler.class, "flushFailures"));
+    metrics.register(MetricRegistry.name(PersistenceScheduler.class, "dirtyUsers"), (Gauge<Integer>) dao::getDirtyUserCount);
+
+    executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "user-persistence");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  @Override
+  public void start(){
+    LOG.info("Saving users every "+saveIntervalMillis/1000+" seconds, or after "+flushDirtyUserThreshold+" changed users.");
+    lastFlushMillis = System.currentTimeMillis();
+    lastSuccessfulFlushMillis = lastFlushMillis;
+    executor.scheduleWithFixedDelay(this::poll, POLL_MILLIS, POLL_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Waits for any save in progress, then saves whatever is left and closes the user files
+   */
+  @Override
+  public void stop() throws InterruptedException{
+    executor.shutdown();
+    while(!executor.awaitTermination(10, TimeUnit.SECONDS)){
+      LOG.info("Waiting for the current save to finish before shutting down.");
+    }
+    try {
+      if(!dao.isInitialized()){
+        // Saving now would replace the users on disk with the few created since startup
+        LOG.error("The UserDaoLocalImpl is not initialized. Cannot save users.");
+        return;
+      }
+      flush();
+    } finally {
+      // The journal and payload store are open either way
+      dao.close();
+    }
+  }
+
+  /**
+   * @return when every change was last saved, or there was nothing to save
+   */
+  public long getLastSuccessfulFlushMillis() {return lastSuccessfulFlushMillis;}
+
+  // Local helper functions
+  private void poll(){
+    try {
+      long sinceLastFlush = System.currentTimeMillis() - lastFlushMillis;
+      boolean scheduled = sinceLastFlush >= saveIntervalMillis * backoff;
+      // Lots of changes are saved early, but never more often than saves are taking to run
+      boolean early = sinceLastFlush >= lastFlushDurationMillis && dao.getDirtyUserCount() >= flushDirtyUserThreshold;
+      if(!scheduled && !early){return;}
+
+      if(!dao.isInitialized()){
+        LOG.error("The UserDaoLocalImpl is not initialized. Cannot save users.");
+        lastFlushMillis = System.currentTimeMillis();
+        return;
+      }
+      if(scheduled){
+        // Evicted users are marked dirty, so they're dropped from the snapshot written below
+        dao.evictIdleUsers();
+      }
+      flush();
+    }
+    // This must never stop the scheduler, else all is lost...
+    catch (Throwable e) {
+      LOG.error("There was a problem saving users",e);
+    }
+  }
+
+  private void flush(){
+    // Nothing has changed since the last save, so there's nothing to write
+    if(!dao.isDirty()){
+      lastFlushMillis = System.currentTimeMillis();
+      lastSuccessfulFlushMillis = lastFlushMillis;
+      return;
+    }
+
+    long start = System.nanoTime();
+    FlushStats stats = dao.saveUsersToFile();
+    long duration = System.nanoTime() - start;
+    lastFlushMillis = System.currentTimeMillis();
+    lastFlushDurationMillis = TimeUnit.NANOSECONDS.toMillis(duration);
+
+    if(stats == null){
+      flushFailures.mark();
+      return;
+    }
+    lastSuccessfulFlushMillis = lastFlushMillis;
+    // The journal already holds every change, so a save that didn't need to compact it wrote nothing
+    if(stats == FlushStats.NONE){return;}
+
+    flushTimer.update(duration, TimeUnit.NANOSECONDS);
+    usersWritten.mark(stats.getUsersWritten());
+    bytesWritten.mark(stats.getBytesWritten());
+    adjustBackoff();
+  }
+
+  private void adjustBackoff(){
+    long interval = saveIntervalMillis * backoff;
+    if(lastFlushDurationMillis > interval && backoff < MAX_BACKOFF){
+      backoff *= 2;
+      LOG.warn("Saving users took "+lastFlushDurationMillis+"ms, longer than the "+interval+"ms between saves. Saving every "
+          +saveIntervalMillis*backoff+"ms until saves catch up.");
+    }
+    else if(backoff > 1 && lastFlushDurationMillis * 2 < saveIntervalMillis){
+      backoff /= 2;
+    }
+  }
+}
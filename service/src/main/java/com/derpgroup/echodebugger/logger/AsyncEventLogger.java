@@ -0,0 +1,209 @@
+package com.derpgroup.echodebugger.logger;
+
+import io.dropwizard.lifecycle.Managed;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Hands metrics events off to a background thread, so request threads never wait on the log appender.
+ *
+ * Events are written into a fixed ring of preallocated slots (a bounded multi-producer, single-consumer queue).
+ * When the ring is full the event is dropped and counted, rather than blocking the request.
+ * The background thread runs between {@link #start()} and {@link #stop()}, and sleeps until an event is published.
+ */
+public class AsyncEventLogger implements Managed {
+
+	// Dropped events are still reported when nothing else is being written
+	private static final long IDLE_PARK_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	private static class Event {
+		// Equal to the slot's position when free, and position+1 once an event has been published into it
+		volatile long sequence;
+		String echoId;
+		String type;
+		String message;
+		Object payload;
+	}
+
+	private final Logger log;
+	private final ObjectMapper mapper;
+	private final Event[] ring;
+	private final int mask;
+	private final AtomicLong tail = new AtomicLong();
+	private final LongAdder droppedEvents = new LongAdder();
+	private volatile Thread drainThread;
+	private volatile boolean running;
+	// Set by the drain thread before it sleeps, so publishers know to wake it
+	private volatile boolean waiting;
+
+	// Only touched by the drain thread
+	private long head;
+	private long reportedDrops;
+	private final StringBuilder line = new StringBuilder(256);
+
+	/**
+	 * @param capacity number of events that can be waiting to be written. Must be a power of two.
+	 */
+	public AsyncEventLogger(Logger log, ObjectMapper mapper, int capacity){
+		if(Integer.bitCount(capacity) != 1){
+			throw new IllegalArgumentException("The capacity must be a power of two, not "+capacity);
+		}
+		this.log = log;
+		this.mapper = mapper;
+		this.ring = new Event[capacity];
+		this.mask = capacity - 1;
+		for(int i = 0; i < capacity; i++){
+			ring[i] = new Event();
+			ring[i].sequence = i;
+		}
+	}
+
+	/**
+	 * Queues an event to be written as "echoId,type,message". The payload, if any, is serialized
+	 * on the background thread and used in place of the message, so it must not be modified afterwards.
+	 * @return false if the queue was full and the event was dropped
+	 */
+	public boolean publish(String echoId, String type, String message, Object payload){
+		Event event;
+		long position;
+		while(true){
+			position = tail.get();
+			event = ring[(int) (position & mask)];
+			long difference = event.sequence - position;
+			if(difference == 0){
+				if(tail.compareAndSet(position, position + 1)){
+					break;
+				}
+			}
+			else if(difference < 0){
+				droppedEvents.increment();
+				return false;
+			}
+		}
+
+		event.echoId = echoId;
+		event.type = type;
+		event.message = message;
+		event.payload = payload;
+		event.sequence = position + 1;
+		if(waiting){
+			waiting = false;
+			LockSupport.unpark(drainThread);
+		}
+		return true;
+	}
+
+	public long getDroppedEvents(){
+		return droppedEvents.sum();
+	}
+
+	/**
+	 * Starts the background thread. Events published before this are kept until it starts, up to the capacity.
+	 */
+	@Override
+	public synchronized void start(){
+		if(drainThread != null){return;}
+		running = true;
+		Thread thread = new Thread(this::drain, "metrics-logger");
+		thread.setDaemon(true);
+		drainThread = thread;
+		thread.start();
+	}
+
+	/**
+	 * Writes out everything still queued, then stops the background thread
+	 */
+	@Override
+	public synchronized void stop() throws InterruptedException{
+		Thread thread = drainThread;
+		if(thread == null){return;}
+		running = false;
+		LockSupport.unpark(thread);
+		thread.join(TimeUnit.SECONDS.toMillis(5));
+		drainThread = null;
+	}
+
+	// Local helper functions
+	private void drain(){
+		while(true){
+			boolean wroteEvents = drainAvailable();
+			if(!running){
+				drainAvailable();
+				return;
+			}
+			if(!wroteEvents){
+				waiting = true;
+				// Check again, in case an event was published before the flag was seen
+				if(ring[(int) (head & mask)].sequence != head + 1 && running){
+					LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+				}
+				waiting = false;
+			}
+		}
+	}
+
+	private boolean drainAvailable(){
+		boolean wroteEvents = false;
+		while(true){
+			Event event = ring[(int) (head & mask)];
+			if(event.sequence != head + 1){
+				break;
+			}
+			try {
+				write(event);
+			}
+			// A bad event must never kill the thread
+			catch (RuntimeException e) {
+				log.warn("Could not write metrics event", e);
+			}
+			event.echoId = null;
+			event.message = null;
+			event.payload = null;
+			event.type = null;
+			event.sequence = head + ring.length;
+			head++;
+			wroteEvents = true;
+		}
+
+		long drops = droppedEvents.sum();
+		if(drops != reportedDrops){
+			log.warn("ROOT,DROPPED_EVENTS,"+(drops - reportedDrops));
+			reportedDrops = drops;
+		}
+		return wroteEvents;
+	}
+
+	private void write(Event event){
+		line.setLength(0);
+		line.append(event.echoId);
+		if(event.type == null){
+			line.append(", ").append(event.message);
+		}
+		else{
+			line.append(',').append(event.type).append(',');
+			if(event.payload != null){
+				line.append(serialize(event.payload));
+			}
+			else{
+				line.append(event.message);
+			}
+		}
+		log.info(line.toString());
+	}
+
+	private String serialize(Object payload){
+		try {
+			return mapper.writeValueAsString(payload);
+		} catch (JsonProcessingException e) {
+			return "Could not parse";
+		}
+	}
+}
@@ -5,45 +5,38 @@ import java.util.Map;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+/**
+ * Writes metrics events as "echoId,EVENT,payload". Events are queued and written by a background thread,
+ * see {@link AsyncEventLogger}.
+ */
 public class EchoDebuggerLogger {
 	private static final Logger LOG = LoggerFactory.getLogger(EchoDebuggerLogger.class);
+	private static final int QUEUE_CAPACITY = 8192;
+
+	private static final AsyncEventLogger EVENTS = new AsyncEventLogger(LOG, new ObjectMapper(), QUEUE_CAPACITY);
+
+	public static AsyncEventLogger getEventLogger(){
+		return EVENTS;
+	}
 
 	public static void log(String echoId, String message){
-		LOG.info(echoId+", "+message);
+		EVENTS.publish(echoId, null, message, null);
 	}
 
 	/**
 	 * Primary metrics logging function. Logs a user request and associated metadata.
 	 */
 	public static void logSaveNewResponse(Map<String, Object> postBody, String echoId, boolean legal){
-		ObjectMapper mapper = new ObjectMapper();
-		String result = null;
-		try {
-			result = mapper.writeValueAsString(postBody);
-		} catch (JsonProcessingException e) {
-			result = "Could not parse";
-		}
-		if(legal){
-			LOG.info(echoId+",NEW_RESPONSE,"+result);
-		}
-		else{
-			LOG.info(echoId+",NEW_ILLEGAL_RESPONSE,"+result);
-		}
+		EVENTS.publish(echoId, legal ? "NEW_RESPONSE" : "NEW_ILLEGAL_RESPONSE", null, postBody);
 	}
 
 	public static void logAccessRequest(String echoId, String message, boolean legal){
-		if(legal){
-			LOG.info(echoId+",WEB_REQUEST,"+message);
-		}
-		else{
-			LOG.info(echoId+",ILLEGAL_WEB_REQUEST,"+message);
-		}
+		EVENTS.publish(echoId, legal ? "WEB_REQUEST" : "ILLEGAL_WEB_REQUEST", message, null);
 	}
 
 	public static void logEchoRequest(String echoId, String intent){
-		LOG.info(echoId+",ECHO_REQUEST,"+intent);
+		EVENTS.publish(echoId, "ECHO_REQUEST", intent, null);
 	}
 }
@@ -0,0 +1,207 @@
+package com.derpgroup.echodebugger.model;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Holds users that have been evicted from memory, one file per user, so they can be loaded back when they return.
+ *
+ * Files live in a directory next to the content file, e.g. users.json.cold/3f/3fa9...e1.json, named by a hash
+ * of the echoId. Next to each user is a small {@link Entry} file, read at startup so cold users can be listed,
+ * counted and found by id without reading the users themselves.
+ */
+public class ColdUserStore {
+	private static final Logger LOG = LoggerFactory.getLogger(ColdUserStore.class);
+	private static final String DIRECTORY_SUFFIX = ".cold";
+	private static final String ENTRY_SUFFIX = ".entry";
+	private static final String UNREADABLE_SUFFIX = ".unreadable";
+
+	/**
+	 * What's kept in memory for a cold user
+	 */
+	public static class Entry {
+		private String echoId;
+		private UUID id;
+		private Instant lastUploadTime;
+		private int intents;
+		private long payloadBytes;
+
+		public Entry(){}
+
+		public static Entry of(User user){
+			Entry entry = new Entry();
+			entry.echoId = user.getEchoId();
+			entry.id = user.getId();
+			entry.lastUploadTime = user.getLastUploadTime();
+			for(IntentResponses intentResponses : user.getIntents().values()){
+				entry.intents++;
+				entry.payloadBytes += intentResponses.getPayloadBytes();
+			}
+			return entry;
+		}
+
+		public StoredContent toStoredContent(){
+			return new StoredContent(1, intents, payloadBytes);
+		}
+
+		public String getEchoId() {return echoId;}
+		public void setEchoId(String echoId) {this.echoId = echoId;}
+		public UUID getId() {return id;}
+		public void setId(UUID id) {this.id = id;}
+		public Instant getLastUploadTime() {return lastUploadTime;}
+		public void setLastUploadTime(Instant lastUploadTime) {this.lastUploadTime = lastUploadTime;}
+		public int getIntents() {return intents;}
+		public void setIntents(int intents) {this.intents = intents;}
+		public long getPayloadBytes() {return payloadBytes;}
+		public void setPayloadBytes(long payloadBytes) {this.payloadBytes = payloadBytes;}
+	}
+
+	private final Path directory;
+	private final String extension;
+	private final ObjectMapper mapper;
+	private final SnapshotFiles files;
+
+	public ColdUserStore(String contentFile, SnapshotFormat format, SnapshotFiles files){
+		this.directory = Paths.get(contentFile + DIRECTORY_SUFFIX);
+		this.extension = format.getExtension();
+		this.mapper = format.createMapper();
+		this.files = files;
+	}
+
+	/**
+	 * Durably writes the user, replacing any older copy
+	 * @return the entry to keep in memory for the user
+	 */
+	public Entry write(User user) throws IOException{
+		Entry entry;
+		byte[] content;
+		// Changes to a user hold its monitor, so it's copied in a consistent state
+		synchronized(user){
+			entry = Entry.of(user);
+			content = mapper.writeValueAsBytes(user);
+		}
+		files.write(userPath(user.getEchoId()), content);
+		files.write(entryPath(user.getEchoId()), mapper.writeValueAsBytes(entry));
+		return entry;
+	}
+
+	/**
+	 * @return the user, or null if there is no cold copy of it
+	 */
+	public User read(String echoId) throws IOException{
+		Path file = userPath(echoId);
+		if(!Files.exists(file)){return null;}
+		User user = mapper.readValue(file.toFile(), User.class);
+		return echoId.equals(user.getEchoId()) ? user : null;
+	}
+
+	/**
+	 * Passes the entry of every cold user to the consumer. A user whose entry is missing or unreadable is read
+	 * instead, and its entry written again. A user that can't be read either is logged and moved aside
+	 * (to users.json.cold/3f/3fa9...e1.json.unreadable), so one bad file can't stop the rest from loading.
+	 */
+	public void readEntries(Consumer<Entry> consumer) throws IOException{
+		if(!Files.isDirectory(directory)){return;}
+
+		int count = 0;
+		// Moved aside once the walk is done, rather than from under it
+		List<Path> unreadable = new ArrayList<>();
+		try(Stream<Path> paths = Files.walk(directory, 2)){
+			Iterator<Path> userFiles = paths.filter(path -> path.getFileName().toString().endsWith(extension)).iterator();
+			while(userFiles.hasNext()){
+				Path userFile = userFiles.next();
+				Path entryFile = userFile.resolveSibling(userFile.getFileName() + ENTRY_SUFFIX);
+				Entry entry = null;
+				try {
+					entry = mapper.readValue(entryFile.toFile(), Entry.class);
+				} catch (IOException e) {
+					entry = rebuildEntry(userFile, entryFile);
+				}
+				if(entry != null){
+					consumer.accept(entry);
+					count++;
+				}
+				else{
+					unreadable.add(userFile);
+					unreadable.add(entryFile);
+				}
+			}
+		}
+		unreadable.forEach(this::quarantine);
+		LOG.info("Found "+count+" users in cold storage");
+	}
+
+	public void delete(String echoId) throws IOException{
+		files.deleteAll(userPath(echoId));
+		files.deleteAll(entryPath(echoId));
+	}
+
+	// Local helper functions
+	private Entry rebuildEntry(Path userFile, Path entryFile){
+		User user;
+		try {
+			user = mapper.readValue(userFile.toFile(), User.class);
+		} catch (IOException e) {
+			LOG.error("Could not read the cold user "+userFile+", moving it aside",e);
+			return null;
+		}
+		LOG.info("Rebuilding the cold storage entry for ("+user.getEchoId()+")");
+		Entry entry = Entry.of(user);
+		try {
+			files.write(entryFile, mapper.writeValueAsBytes(entry));
+		} catch (IOException e) {
+			LOG.warn("Could not write the cold storage entry for ("+user.getEchoId()+"), it will be rebuilt at the next start",e);
+		}
+		return entry;
+	}
+
+	private void quarantine(Path file){
+		if(!Files.exists(file)){return;}
+		try {
+			Files.move(file, file.resolveSibling(file.getFileName() + UNREADABLE_SUFFIX), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			LOG.error("Could not move aside "+file,e);
+		}
+	}
+
+	private Path userPath(String echoId){
+		String hash = sha256(echoId);
+		return directory.resolve(hash.substring(0, 2)).resolve(hash + extension);
+	}
+
+	private Path entryPath(String echoId){
+		Path userPath = userPath(echoId);
+		return userPath.resolveSibling(userPath.getFileName() + ENTRY_SUFFIX);
+	}
+	private static String sha256(String value){
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+			StringBuilder hex = new StringBuilder(digest.length * 2);
+			for(byte b : digest){
+				hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			// Every JVM is required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+}
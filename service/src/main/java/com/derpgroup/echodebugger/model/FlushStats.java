@@ -0,0 +1,24 @@
+package com.derpgroup.echodebugger.model;
+
+/**
+ * What a flush of user data wrote to disk
+ */
+public class FlushStats {
+
+	public static final FlushStats NONE = new FlushStats(0, 0);
+
+	private final int usersWritten;
+	private final long bytesWritten;
+
+	public FlushStats(int usersWritten, long bytesWritten){
+		this.usersWritten = usersWritten;
+		this.bytesWritten = bytesWritten;
+	}
+
+	public int getUsersWritten() {return usersWritten;}
+	public long getBytesWritten() {return bytesWritten;}
+
+	public FlushStats plus(FlushStats other){
+		return new FlushStats(usersWritten + other.usersWritten, bytesWritten + other.bytesWritten);
+	}
+}
@@ -0,0 +1,199 @@
+package com.derpgroup.echodebugger.model;
+
+import io.dropwizard.lifecycle.Managed;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Makes writes durable in batches. Request threads submit items and wait, while a single writer thread takes
+ * everything that arrives within a short window (or up to a maximum batch size) and hands it to the
+ * {@link BatchWriter} in one go, so one fsync covers the whole batch. The window is only waited out while writes
+ * are arriving together, so a lone write is flushed straight away.
+ *
+ * The writer thread runs between {@link #start()} and {@link #stop()}; nothing can be submitted before it starts.
+ */
+public class GroupCommitter<T> implements Managed {
+	private static final Logger LOG = LoggerFactory.getLogger(GroupCommitter.class);
+	// How often an idle writer thread checks whether it's been stopped
+	private static final long IDLE_POLL_MILLIS = 100;
+	public static final long DEFAULT_WINDOW_MILLIS = 2;
+	public static final int DEFAULT_MAX_BATCH = 512;
+
+	public interface BatchWriter<T> {
+		/**
+		 * Durably writes every item, in order. If this throws, every item in the batch fails.
+		 */
+		void write(List<T> batch) throws IOException;
+	}
+
+	private static class Pending<T> {
+		final T item;
+		final CompletableFuture<Void> done = new CompletableFuture<>();
+
+		Pending(T item){
+			this.item = item;
+		}
+	}
+
+	private final BatchWriter<T> writer;
+	private final long windowNanos;
+	private final int maxBatch;
+	private final BlockingQueue<Pending<T>> queue = new LinkedBlockingQueue<>();
+	private volatile Thread writerThread;
+	private volatile boolean running;
+	// Only touched by the writer thread
+	private int lastBatchSize;
+
+	/**
+	 * @param windowMillis how long to wait for more items after the first one arrives. With 0, a batch is whatever
+	 * arrived while the previous batch was being written.
+	 * @param maxBatch the most items written in one batch
+	 */
+	public GroupCommitter(String name, BatchWriter<T> writer, long windowMillis, int maxBatch){
+		this.writer = writer;
+		this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+		this.maxBatch = Math.max(1, maxBatch);
+		this.writerThread = new Thread(this::run, name);
+		this.writerThread.setDaemon(true);
+	}
+
+	/**
+	 * Queues the item, and waits until the batch holding it has been written
+	 */
+	public void commit(T item) throws IOException{
+		await(submit(item));
+	}
+
+	/**
+	 * Queues the item without waiting. Items are written in the order they're submitted.
+	 * @return completes once the batch holding the item has been written
+	 */
+	public CompletableFuture<Void> submit(T item) throws IOException{
+		if(!running){
+			throw new IOException("Writes are not being accepted, the writer is not running");
+		}
+		Pending<T> pending = new Pending<>(item);
+		queue.add(pending);
+		return pending.done;
+	}
+
+	/**
+	 * Waits for a submitted item to be written
+	 */
+	public void await(CompletableFuture<Void> done) throws IOException{
+		try {
+			while(true){
+				try {
+					done.get(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+					return;
+				} catch (TimeoutException e) {
+					// Only possible if the writer stopped just as this was queued
+					if(!writerThread.isAlive() && !done.isDone()){
+						throw new IOException("The writer stopped before this write was committed");
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting for a write to be committed");
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof IOException){
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+
+	/**
+	 * Starts the writer thread. A committer can only be started once.
+	 */
+	@Override
+	public synchronized void start(){
+		if(writerThread.getState() != Thread.State.NEW){return;}
+		running = true;
+		writerThread.start();
+	}
+
+	/**
+	 * Writes out everything already queued, then stops the writer thread
+	 */
+	@Override
+	public void stop() throws InterruptedException{
+		// Not interrupted, an interrupt would close any FileChannel the writer is in the middle of using
+		running = false;
+		writerThread.join(TimeUnit.SECONDS.toMillis(5));
+	}
+
+	// Local helper functions
+	private void run(){
+		List<Pending<T>> batch = new ArrayList<>(maxBatch);
+		while(running || !queue.isEmpty()){
+			try {
+				collectBatch(batch);
+			} catch (InterruptedException e) {
+				LOG.warn("The group commit writer was interrupted, writing what it has so far");
+			}
+			if(!batch.isEmpty()){
+				writeBatch(batch);
+				batch.clear();
+			}
+		}
+	}
+
+	private void collectBatch(List<Pending<T>> batch) throws InterruptedException{
+		Pending<T> first = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+		if(first == null){return;}
+		batch.add(first);
+		// Nothing else is waiting and the last batch was a lone write too, so there's nothing to gather
+		if(queue.isEmpty() && lastBatchSize <= 1){
+			lastBatchSize = 1;
+			return;
+		}
+		long deadline = System.nanoTime() + windowNanos;
+		while(batch.size() < maxBatch){
+			queue.drainTo(batch, maxBatch - batch.size());
+			long remaining = deadline - System.nanoTime();
+			if(batch.size() >= maxBatch || remaining <= 0){
+				break;
+			}
+			Pending<T> next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+			if(next == null){
+				break;
+			}
+			batch.add(next);
+		}
+		lastBatchSize = batch.size();
+	}
+
+	private void writeBatch(List<Pending<T>> batch){
+		List<T> items = new ArrayList<>(batch.size());
+		for(Pending<T> pending : batch){
+			items.add(pending.item);
+		}
+		try {
+			writer.write(items);
+			for(Pending<T> pending : batch){
+				pending.done.complete(null);
+			}
+		}
+		// Whatever went wrong, every waiting request has to hear about it
+		catch (Throwable e) {
+			LOG.error("Could not commit a batch of "+batch.size()+" writes",e);
+			for(Pending<T> pending : batch){
+				pending.done.completeExceptionally(e);
+			}
+		}
+	}
+}
@@ -1,17 +1,303 @@
 package com.derpgroup.echodebugger.model;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+import org.apache.commons.collections.MapUtils;
+import org.apache.commons.lang3.StringUtils;
+
+import com.derpgroup.echodebugger.util.ResponderUtils;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
 
 /**
- * This object contains all the responses for an intent.
+ * This object contains all the responses for an intent: a default response, plus variants that only answer for
+ * particular slot values and states. See {@link ResponseMatcher} for how a variant is picked.
+ * Once stored on a user it is treated as immutable: an upload stores a new instance rather than changing this one.
  */
 public class IntentResponses {
 
 	private String intentName;
-	private Map<String, Object> data;
+	// The conditions of a variant. Both are empty for the default response.
+	private Map<String, String> variables;	// Key=CustomSlot name, Value=CustomSlot value or ResponseMatcher.WILDCARD
+	private String state;
+	private List<IntentResponses> variants = Collections.emptyList();
+	// Built on first use, from variants that never change
+	@JsonIgnore
+	private volatile ResponseMatcher matcher;
+	// Null when the data is in a MappedPayloadStore, leaving only serializedData
+	private volatile Map<String, Object> data;
+
+	// Cached serialized form of data, rebuilt whenever data is replaced
+	@JsonIgnore
+	private volatile SerializedContent serializedData;
+	// Compiled from serializedData on first use, and reset along with it
+	@JsonIgnore
+	private volatile ResponseTemplate template;
+	// Hash of the data, conditions and variants. Computed when an upload is merged, or on first use for loaded users.
+	@JsonIgnore
+	private volatile String etag;
 
 	public String getIntentName() {return intentName;}
 	public void setIntentName(String intentName) {this.intentName = intentName;}
-	public Map<String, Object> getData() {return data;}
-	public void setData(Map<String, Object> data) {this.data = data;}
+	@JsonInclude(JsonInclude.Include.NON_EMPTY)
+	public Map<String, String> getVariables() {return variables;}
+	public void setVariables(Map<String, String> variables) {this.variables = variables;}
+	@JsonInclude(JsonInclude.Include.NON_EMPTY)
+	public String getState() {return state;}
+	public void setState(String state) {this.state = state;}
+	@JsonInclude(JsonInclude.Include.NON_EMPTY)
+	public List<IntentResponses> getVariants() {return variants;}
+	public void setVariants(List<IntentResponses> variants) {
+		this.variants = (variants != null) ? Collections.unmodifiableList(new ArrayList<>(variants)) : Collections.emptyList();
+		this.matcher = null;
+		this.etag = null;
+	}
+
+	/**
+	 * Returns a copy of current with the upload added. An upload without slot or state conditions replaces the default
+	 * response, anything else replaces the variant with the same conditions, or is added as a new one.
+	 * @param current the intent's responses so far, or null if there aren't any
+	 */
+	public static IntentResponses merge(IntentResponses current, IntentResponses upload){
+		IntentResponses merged = new IntentResponses();
+		merged.setIntentName(upload.getIntentName());
+		List<IntentResponses> mergedVariants = new ArrayList<>();
+		if(current != null){
+			mergedVariants.addAll(current.getVariants());
+		}
+
+		if(!upload.hasConditions()){
+			merged.setData(upload.data, upload.serializedData);
+			merged.template = upload.template;
+		}
+		else{
+			if(current != null){
+				merged.setData(current.data, current.serializedData);
+				merged.template = current.template;
+			}
+			mergedVariants.removeIf(variant -> variant.hasSameConditions(upload));
+			mergedVariants.add(upload);
+		}
+		merged.setVariants(mergedVariants);
+		merged.etag = merged.computeEtag();
+		return merged;
+	}
+
+	/**
+	 * Picks the response for the slot values and state of a request: the most specific variant that matches, or else the default response
+	 */
+	public IntentResponses match(Map<String, String> slots, String requestState){
+		if(variants.isEmpty()){return this;}
+		ResponseMatcher current = matcher;
+		if(current == null){
+			current = new ResponseMatcher(variants);
+			matcher = current;
+		}
+		IntentResponses matched = current.match(slots, requestState);
+		return (matched != null) ? matched : this;
+	}
+
+	/**
+	 * True for a variant, i.e. a response that only answers for particular slot values or states
+	 */
+	@JsonIgnore
+	public boolean hasConditions(){
+		return MapUtils.isNotEmpty(variables) || StringUtils.isNotEmpty(state);
+	}
+
+	/**
+	 * Returns the data, building it back from the serialized form if it has been moved off the heap
+	 */
+	@JsonIgnore
+	public Map<String, Object> getData() {
+		Map<String, Object> current = data;
+		if(current != null){return current;}
+		SerializedContent serialized = serializedData;
+		if(serialized == null){return null;}
+		try {
+			return serialized.toMap();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@JsonProperty("data")
+	public void setData(Map<String, Object> data) {setData(data, null);}
+
+	/**
+	 * Sets the data along with its already serialized form, to save serializing it twice
+	 */
+	public void setData(Map<String, Object> data, SerializedContent serializedData){
+		this.template = null;
+		this.etag = null;
+		this.serializedData = serializedData;
+		this.data = data;
+	}
+
+	/**
+	 * Serializes the data straight from the stored bytes when it has been moved off the heap
+	 */
+	@JsonProperty("data")
+	public Object getStoredData() {
+		Map<String, Object> current = data;
+		return (current != null) ? current : serializedData;
+	}
+
+	/**
+	 * Returns the serialized data, or null if there is no data
+	 */
+	@JsonIgnore
+	public SerializedContent getSerializedData(){
+		SerializedContent serialized = serializedData;
+		if(serialized == null && data != null){
+			serialized = SerializedContent.of(data);
+			serializedData = serialized;
+		}
+		return serialized;
+	}
+
+	/**
+	 * Returns the {slotName} placeholders in the serialized data, compiling them the first time
+	 */
+	@JsonIgnore
+	public ResponseTemplate getTemplate(){
+		ResponseTemplate current = template;
+		if(current == null){
+			SerializedContent serialized = getSerializedData();
+			current = (serialized != null) ? ResponseTemplate.compile(serialized) : ResponseTemplate.NONE;
+			template = current;
+		}
+		return current;
+	}
+
+	/**
+	 * A strong ETag for these responses: a hash of the data, the conditions and every variant.
+	 * Responses never change once stored, so the same value is returned until the intent is uploaded again.
+	 */
+	@JsonIgnore
+	public String getEtag(){
+		String current = etag;
+		if(current == null){
+			current = computeEtag();
+			etag = current;
+		}
+		return current;
+	}
+
+	/**
+	 * True if there is a non-empty response. Unlike getData, this never builds the response back from the payload store.
+	 */
+	@JsonIgnore
+	public boolean hasData(){
+		Map<String, Object> current = data;
+		if(current != null){return !current.isEmpty();}
+		return serializedData != null;
+	}
+
+	/**
+	 * Returns a copy with the data of this response and its variants in the payload store, and no heap copy.
+	 * This instance is left as it is, since readers may still be using it.
+	 * @return the copy, or this instance if nothing could be moved
+	 */
+	public IntentResponses movedTo(MappedPayloadStore payloadStore) throws IOException{
+		List<IntentResponses> movedVariants = new ArrayList<>(variants.size());
+		boolean moved = false;
+		for(IntentResponses variant : variants){
+			IntentResponses movedVariant = variant.movedTo(payloadStore);
+			movedVariants.add(movedVariant);
+			moved |= (movedVariant != variant);
+		}
+
+		SerializedContent mapped = null;
+		// Empty responses stay on the heap, so that hasData doesn't have to look at the stored bytes
+		if(hasData() && !isMapped()){
+			SerializedContent serialized = getSerializedData();
+			if(serialized != null){
+				mapped = payloadStore.store(serialized);
+				if(!mapped.isMapped()){
+					mapped = null;
+				}
+			}
+		}
+		if(!moved && mapped == null){return this;}
+
+		IntentResponses copy = new IntentResponses();
+		copy.setIntentName(intentName);
+		copy.setVariables(variables);
+		copy.setState(state);
+		copy.setVariants(movedVariants);
+		if(mapped != null){
+			copy.setData(null, mapped);
+		}
+		else{
+			copy.setData(data, serializedData);
+			copy.template = template;
+		}
+		// Same content, so the same ETag
+		copy.etag = etag;
+		return copy;
+	}
+
+	/**
+	 * The serialized size of the data of this response and its variants, wherever it's kept
+	 */
+	@JsonIgnore
+	public long getPayloadBytes(){
+		long bytes = 0;
+		for(IntentResponses variant : variants){
+			bytes += variant.getPayloadBytes();
+		}
+		SerializedContent serialized = getSerializedData();
+		return bytes + ((serialized != null) ? serialized.getByteCount() : 0);
+	}
+
+	@JsonIgnore
+	public boolean isMapped(){
+		SerializedContent serialized = serializedData;
+		return data == null && serialized != null && serialized.isMapped();
+	}
+
+	// Local helper functions
+	private String computeEtag(){
+		MessageDigest digest = ResponderUtils.newDigest();
+		SerializedContent serialized = getSerializedData();
+		if(serialized != null){
+			serialized.updateDigest(digest);
+		}
+		ResponderUtils.updateDigest(digest, state);
+		if(variables != null){
+			for(Map.Entry<String, String> variable : new TreeMap<>(variables).entrySet()){
+				ResponderUtils.updateDigest(digest, variable.getKey());
+				ResponderUtils.updateDigest(digest, variable.getValue());
+			}
+		}
+		for(IntentResponses variant : variants){
+			ResponderUtils.updateDigest(digest, variant.getEtag());
+		}
+		return ResponderUtils.toEtag(digest);
+	}
+
+	private boolean hasSameConditions(IntentResponses other){
+		return normalize(variables).equals(normalize(other.variables))
+				&& Objects.equals(ResponseMatcher.normalize(StringUtils.defaultIfEmpty(state, null)),
+						ResponseMatcher.normalize(StringUtils.defaultIfEmpty(other.state, null)));
+	}
+
+	private static Map<String, String> normalize(Map<String, String> conditions){
+		Map<String, String> normalized = new HashMap<>();
+		if(conditions != null){
+			conditions.forEach((slot, value) -> normalized.put(slot, ResponseMatcher.normalize(value)));
+		}
+		return normalized;
+	}
 }
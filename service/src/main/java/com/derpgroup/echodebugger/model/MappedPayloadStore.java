@@ -0,0 +1,168 @@
+package com.derpgroup.echodebugger.model;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps serialized responses in memory-mapped files instead of on the heap, so the heap only holds small
+ * handles and GC pauses don't grow with the number of stored responses.
+ *
+ * Responses are packed into fixed size chunks, each mapped from its own scratch file next to the configured file,
+ * e.g. payloads.mapped.3.chunk. Every stored response keeps its chunk mapped, so once no response in a chunk is
+ * referenced any more (its intent was replaced or deleted, or its user evicted), the GC unmaps the chunk and its
+ * file is deleted on the next store. A chunk is only freed as a whole, so a single long-lived response keeps its
+ * chunk alive. The store is bounded by maxBytes of live chunks: once that's reached, responses stay on the heap
+ * until a chunk is freed.
+ *
+ * Snapshots still hold every response, so leftover chunk files are deleted at startup rather than read.
+ * Files are only ever deleted and never truncated, so a mapping held by another process is left intact.
+ */
+public class MappedPayloadStore implements Closeable {
+	public static final int DEFAULT_CHUNK_SIZE = 64 * 1024 * 1024;
+	private static final Logger LOG = LoggerFactory.getLogger(MappedPayloadStore.class);
+	private static final long DEFAULT_MAX_BYTES = 16L * DEFAULT_CHUNK_SIZE;
+	private static final String CHUNK_SUFFIX = ".chunk";
+
+	private final Path file;
+	private final int chunkSize;
+	private final long maxBytes;
+	// Enqueued once the GC finds a chunk unreachable, i.e. once no response refers to it
+	private final ReferenceQueue<MappedByteBuffer> freedChunks = new ReferenceQueue<>();
+	private final Map<Reference<MappedByteBuffer>, Path> chunkFiles = new HashMap<>();
+	private MappedByteBuffer currentChunk;
+	private long nextChunkNumber;
+	private long mappedBytes;
+	private boolean full;
+	private boolean closed;
+
+	public MappedPayloadStore(String fileName) throws IOException{
+		this(fileName, DEFAULT_CHUNK_SIZE, DEFAULT_MAX_BYTES);
+	}
+
+	/**
+	 * @param chunkSize the files are mapped this many bytes at a time. A payload larger than this stays on the heap.
+	 * @param maxBytes the most bytes of chunks to keep mapped at once
+	 */
+	public MappedPayloadStore(String fileName, int chunkSize, long maxBytes) throws IOException{
+		this.file = Paths.get(fileName).toAbsolutePath();
+		this.chunkSize = chunkSize;
+		this.maxBytes = Math.max(maxBytes, chunkSize);
+		Files.createDirectories(file.getParent());
+		deleteChunkFiles();
+	}
+
+	/**
+	 * Copies the content into a mapped chunk
+	 * @return a handle on the mapped copy, or the content itself if it is already mapped, too large to map,
+	 * or the store is full
+	 */
+	public SerializedContent store(SerializedContent content) throws IOException{
+		if(content.isMapped() || content.getByteCount() > chunkSize){
+			return content;
+		}
+
+		ByteBuffer region;
+		synchronized(this){
+			if(closed){return content;}
+			if(currentChunk == null || currentChunk.remaining() < content.getByteCount()){
+				if(!mapNextChunk()){return content;}
+			}
+			region = currentChunk.slice();
+			region.limit(content.getByteCount());
+			currentChunk.position(currentChunk.position() + content.getByteCount());
+		}
+		// The region is reserved for this caller alone, so the copy can happen outside the lock
+		content.copyTo(region);
+		region.flip();
+		return new SerializedContent(region.slice().asReadOnlyBuffer(), content.getLength());
+	}
+
+	/**
+	 * Bytes of chunks still mapped, including space in them held by responses that have since been replaced
+	 */
+	public synchronized long getMappedBytes(){
+		deleteFreedChunks();
+		return mappedBytes;
+	}
+
+	/**
+	 * Stops storing responses and deletes every chunk file. Chunks stay mapped for any response still being
+	 * played, and are unmapped by the GC once those are gone.
+	 */
+	@Override
+	public synchronized void close() throws IOException{
+		closed = true;
+		currentChunk = null;
+		chunkFiles.clear();
+		mappedBytes = 0;
+		deleteChunkFiles();
+	}
+
+	// Local helper functions
+	/**
+	 * @return false if the store is full
+	 */
+	private boolean mapNextChunk() throws IOException{
+		// Only the current chunk is held here, so a chunk is freed as soon as none of its responses are referenced
+		currentChunk = null;
+		deleteFreedChunks();
+		if(mappedBytes + chunkSize > maxBytes){
+			if(!full){
+				LOG.warn("The payload store is full at "+mappedBytes+" bytes, new responses will be kept on the heap");
+				full = true;
+			}
+			return false;
+		}
+		full = false;
+
+		Path chunkFile = file.resolveSibling(file.getFileName() + "." + (nextChunkNumber++) + CHUNK_SUFFIX);
+		MappedByteBuffer chunk;
+		// The mapping stays valid after the channel is closed
+		try(FileChannel channel = FileChannel.open(chunkFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)){
+			chunk = channel.map(FileChannel.MapMode.READ_WRITE, 0, chunkSize);
+		}
+		chunkFiles.put(new PhantomReference<>(chunk, freedChunks), chunkFile);
+		currentChunk = chunk;
+		mappedBytes += chunkSize;
+		LOG.debug("Mapped "+chunkFile+", "+mappedBytes+" bytes of stored responses are mapped");
+		return true;
+	}
+
+	private void deleteFreedChunks(){
+		Reference<? extends MappedByteBuffer> freed;
+		while((freed = freedChunks.poll()) != null){
+			Path chunkFile = chunkFiles.remove(freed);
+			if(chunkFile == null){continue;}
+			mappedBytes -= chunkSize;
+			try {
+				Files.deleteIfExists(chunkFile);
+			} catch (IOException e) {
+				LOG.warn("Could not delete the freed payload chunk "+chunkFile,e);
+			}
+		}
+	}
+
+	private void deleteChunkFiles() throws IOException{
+		try(DirectoryStream<Path> stream = Files.newDirectoryStream(file.getParent(), file.getFileName() + ".*" + CHUNK_SUFFIX)){
+			for(Path chunkFile : stream){
+				Files.deleteIfExists(chunkFile);
+			}
+		}
+	}
+}
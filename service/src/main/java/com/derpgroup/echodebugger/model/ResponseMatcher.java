@@ -0,0 +1,182 @@
+package com.derpgroup.echodebugger.model;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Finds the most specific response variant for the slot values and state of an Echo request.
+ *
+ * The variants are compiled into a trie with one level for the state and one for each slot name. At each level a
+ * variant either wants an exact value, wants the wildcard (any value, as long as there is one), or doesn't care.
+ * Each node also records the most specific variant below it, so a lookup walks the most specific branch first and
+ * skips any branch that can't beat the best match found so far. Usually that's a single path down the trie.
+ * The first path down is always followed to the end, however many slot names there are. Only the branches tried after
+ * that are bounded, by MAX_BACKTRACKS, so a pathological set of variants can't make a lookup explode: past that, the
+ * best match found so far plays.
+ *
+ * An exact match outranks any number of wildcard matches, and a wildcard match outranks not caring.
+ * Between equally specific variants, the one uploaded last wins. Values are matched ignoring case.
+ */
+public class ResponseMatcher {
+
+	public static final String WILDCARD = "*";
+	private static final int MAX_BACKTRACKS = 256;
+
+	private static class Node {
+		final Map<String, Node> exact = new HashMap<>();
+		Node wildcard;
+		Node any;
+		IntentResponses response;
+		int order;
+		// The most specific variant below this node: its score from here down, and its upload order
+		int bestScore = -1;
+		int bestOrder = -1;
+	}
+
+	private static class Match {
+		IntentResponses response;
+		int score = -1;
+		int order = -1;
+		int backtracks;
+	}
+
+	private final String[] slotNames;
+	// Worth more than every wildcard put together
+	private final int exactScore;
+	private final Node root = new Node();
+
+	public ResponseMatcher(List<IntentResponses> variants){
+		SortedSet<String> names = new TreeSet<>();
+		for(IntentResponses variant : variants){
+			if(variant.getVariables() != null){
+				names.addAll(variant.getVariables().keySet());
+			}
+		}
+		slotNames = names.toArray(new String[names.size()]);
+		exactScore = slotNames.length + 2;
+
+		for(int i = 0; i < variants.size(); i++){
+			insert(variants.get(i), i);
+		}
+		computeBest(root);
+	}
+
+	/**
+	 * @return the most specific variant matching the request, or null if none of them match
+	 */
+	public IntentResponses match(Map<String, String> slots, String state){
+		Match best = new Match();
+		match(root, 0, slots, state, 0, best);
+		return best.response;
+	}
+
+	/**
+	 * Normalizes a slot or state value for comparison
+	 */
+	public static String normalize(String value){
+		return (value != null) ? value.toLowerCase(Locale.ROOT) : null;
+	}
+
+	// Local helper functions
+	private void insert(IntentResponses variant, int order){
+		Node node = root;
+		for(int level = 0; level <= slotNames.length; level++){
+			String condition = (level == 0) ? variant.getState() : get(variant.getVariables(), slotNames[level - 1]);
+			if(StringUtils.isEmpty(condition)){
+				if(node.any == null){node.any = new Node();}
+				node = node.any;
+			}
+			else if(WILDCARD.equals(condition)){
+				if(node.wildcard == null){node.wildcard = new Node();}
+				node = node.wildcard;
+			}
+			else{
+				node = node.exact.computeIfAbsent(normalize(condition), value -> new Node());
+			}
+		}
+		node.response = variant;
+		node.order = order;
+	}
+
+	private void computeBest(Node node){
+		if(node.response != null){
+			node.bestScore = 0;
+			node.bestOrder = node.order;
+			return;
+		}
+		for(Node child : node.exact.values()){
+			computeBest(child);
+			updateBest(node, child, exactScore);
+		}
+		if(node.wildcard != null){
+			computeBest(node.wildcard);
+			updateBest(node, node.wildcard, 1);
+		}
+		if(node.any != null){
+			computeBest(node.any);
+			updateBest(node, node.any, 0);
+		}
+	}
+
+	private static void updateBest(Node node, Node child, int childScore){
+		int score = childScore + child.bestScore;
+		if(score > node.bestScore || (score == node.bestScore && child.bestOrder > node.bestOrder)){
+			node.bestScore = score;
+			node.bestOrder = child.bestOrder;
+		}
+	}
+
+	/**
+	 * Tries the branches of each level from most to least specific, skipping any that can't beat the best match so far
+	 */
+	private void match(Node node, int level, Map<String, String> slots, String state, int score, Match best){
+		if(level > slotNames.length){
+			best.response = node.response;
+			best.score = score;
+			best.order = node.order;
+			return;
+		}
+
+		String value = (level == 0) ? state : get(slots, slotNames[level - 1]);
+		boolean entered = false;
+		if(StringUtils.isNotEmpty(value)){
+			Node exact = node.exact.get(normalize(value));
+			if(exact != null){
+				entered = tryBranch(exact, level + 1, slots, state, score + exactScore, false, best);
+			}
+			if(node.wildcard != null){
+				entered |= tryBranch(node.wildcard, level + 1, slots, state, score + 1, entered, best);
+			}
+		}
+		if(node.any != null){
+			tryBranch(node.any, level + 1, slots, state, score, entered, best);
+		}
+	}
+
+	/**
+	 * Enters a branch, unless it can't beat the best match so far or it's backtracking and the budget is spent
+	 * @param backtracking true if another branch of the same node was already entered
+	 * @return true if the branch was entered
+	 */
+	private boolean tryBranch(Node child, int level, Map<String, String> slots, String state, int score, boolean backtracking, Match best){
+		if(!canBeat(child, score, best)){return false;}
+		if(backtracking && best.backtracks++ >= MAX_BACKTRACKS){return false;}
+		match(child, level, slots, state, score, best);
+		return true;
+	}
+
+	private static boolean canBeat(Node node, int score, Match best){
+		int bound = score + node.bestScore;
+		return bound > best.score || (bound == best.score && node.bestOrder > best.order);
+	}
+
+	private static String get(Map<String, String> map, String key){
+		return (map != null) ? map.get(key) : null;
+	}
+}
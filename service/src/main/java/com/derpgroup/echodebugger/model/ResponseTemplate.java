@@ -0,0 +1,293 @@
+package com.derpgroup.echodebugger.model;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A stored response with {slotName} placeholders in its text, e.g. "It's sunny in {city}".
+ *
+ * The placeholders are found once, when the response is uploaded, and only their positions in the serialized response
+ * are kept. Playing the response writes the bytes between them straight from the stored content, wherever it lives,
+ * to the output, with the JSON-escaped slot values in their place. The rendered response is never held as a whole:
+ * its length is worked out up front, and only a buffer that each thread reuses is copied through.
+ * A placeholder for a slot the request doesn't have is left as it is, so braces in ordinary text are safe.
+ * Only string values are searched, never object keys, so a rendered response always has the same shape.
+ */
+public class ResponseTemplate {
+
+	public static final ResponseTemplate NONE = new ResponseTemplate(new int[0], new int[0], new String[0]);
+	private static final int INITIAL_BUFFER_SIZE = 8192;
+	private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+	private static final ThreadLocal<RenderBuffer> buffers = ThreadLocal.withInitial(RenderBuffer::new);
+
+	// Placeholder i is the bytes from starts[i] up to ends[i] of the serialized response
+	private final int[] starts;
+	private final int[] ends;
+	private final String[] slotNames;
+
+	private ResponseTemplate(int[] starts, int[] ends, String[] slotNames){
+		this.starts = starts;
+		this.ends = ends;
+		this.slotNames = slotNames;
+	}
+
+	/**
+	 * Finds the placeholders in the string values of a serialized response
+	 * @return the template, or NONE if there are no placeholders
+	 */
+	public static ResponseTemplate compile(SerializedContent content){
+		byte[] bytes = readAll(content);
+		List<Integer> starts = new ArrayList<>();
+		List<Integer> ends = new ArrayList<>();
+		List<String> slotNames = new ArrayList<>();
+
+		boolean inString = false;
+		// How many placeholders there were before the current string, so the string's can be dropped if it's a key
+		int before = 0;
+		for(int i = 0; i < bytes.length; i++){
+			byte b = bytes[i];
+			if(!inString){
+				inString = (b == '"');
+				before = slotNames.size();
+			}
+			else if(b == '\\'){
+				i++;
+			}
+			else if(b == '"'){
+				inString = false;
+				if(slotNames.size() > before && isKey(bytes, i + 1)){
+					starts.subList(before, starts.size()).clear();
+					ends.subList(before, ends.size()).clear();
+					slotNames.subList(before, slotNames.size()).clear();
+				}
+			}
+			else if(b == '{'){
+				int end = i + 1;
+				while(end < bytes.length && isSlotNameByte(bytes[end])){end++;}
+				if(end > i + 1 && end < bytes.length && bytes[end] == '}'){
+					starts.add(i);
+					ends.add(end + 1);
+					slotNames.add(new String(bytes, i + 1, end - i - 1, StandardCharsets.US_ASCII));
+					i = end;
+				}
+			}
+		}
+
+		if(slotNames.isEmpty()){return NONE;}
+		return new ResponseTemplate(starts.stream().mapToInt(Integer::intValue).toArray(),
+				ends.stream().mapToInt(Integer::intValue).toArray(), slotNames.toArray(new String[slotNames.size()]));
+	}
+
+	public boolean hasPlaceholders() {return slotNames.length > 0;}
+
+	/**
+	 * Fills in the placeholders with the request's slot values. A slot that's there without a value renders as nothing.
+	 * Nothing is copied until the result is written.
+	 * @param content the serialized response this template was compiled from
+	 */
+	public Rendered render(SerializedContent content, Map<String, String> slots){
+		int length = content.getLength();
+		for(int i = 0; i < slotNames.length; i++){
+			if(!slots.containsKey(slotNames[i])){continue;}
+			// Placeholders are ASCII, so a byte is a character
+			length += jsonEscapedLength(valueOf(slots, slotNames[i])) - (ends[i] - starts[i]);
+		}
+		return new Rendered(content, slots, length);
+	}
+
+	/**
+	 * A response with its placeholders filled in, written straight to the output
+	 */
+	public class Rendered {
+		private final SerializedContent content;
+		private final Map<String, String> slots;
+		private final int length;
+
+		private Rendered(SerializedContent content, Map<String, String> slots, int length){
+			this.content = content;
+			this.slots = slots;
+			this.length = length;
+		}
+
+		/**
+		 * The length in characters, as {@link SerializedContent#getLength()} measures it
+		 */
+		public int getLength() {return length;}
+
+		public void writeTo(OutputStream output) throws IOException{
+			RenderBuffer buffer = buffers.get();
+			int position = 0;
+			for(int i = 0; i < slotNames.length; i++){
+				if(!slots.containsKey(slotNames[i])){continue;}
+				buffer.copy(content, position, starts[i] - position, output);
+				buffer.reset();
+				buffer.appendJsonEscaped(valueOf(slots, slotNames[i]));
+				buffer.writeTo(output);
+				position = ends[i];
+			}
+			buffer.copy(content, position, content.getByteCount() - position, output);
+		}
+	}
+
+	// Local helper functions
+	private static String valueOf(Map<String, String> slots, String slotName){
+		String value = slots.get(slotName);
+		return (value != null) ? value : "";
+	}
+
+	/**
+	 * How many characters appendJsonEscaped writes for the value. An unpaired surrogate is written as U+FFFD, one character.
+	 */
+	private static int jsonEscapedLength(String value){
+		int characters = 0;
+		for(int i = 0; i < value.length(); i++){
+			char c = value.charAt(i);
+			if(c == '"' || c == '\\'){
+				characters += 2;
+			}
+			else if(c < 0x20){
+				characters += 6;
+			}
+			else if(Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))){
+				i++;
+				characters += 2;
+			}
+			else{
+				characters++;
+			}
+		}
+		return characters;
+	}
+
+	/**
+	 * True if a string ending just before position is an object key, i.e. the next thing after it is a colon
+	 */
+	private static boolean isKey(byte[] bytes, int position){
+		while(position < bytes.length && (bytes[position] == ' ' || bytes[position] == '\t' || bytes[position] == '\n' || bytes[position] == '\r')){
+			position++;
+		}
+		return position < bytes.length && bytes[position] == ':';
+	}
+
+	private static boolean isSlotNameByte(byte b){
+		return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9') || b == '_' || b == '.' || b == '-';
+	}
+
+	private static byte[] readAll(SerializedContent content){
+		byte[] bytes = new byte[content.getByteCount()];
+		try(InputStream input = content.openStream()){
+			int offset = 0;
+			while(offset < bytes.length){
+				int read = input.read(bytes, offset, bytes.length - offset);
+				if(read < 0){
+					throw new EOFException("The stored response ended after "+offset+" of its "+bytes.length+" bytes");
+				}
+				offset += read;
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return bytes;
+	}
+
+	/**
+	 * A growable byte array, kept per thread so rendering doesn't allocate one for every request
+	 */
+	private static class RenderBuffer {
+		private byte[] bytes = new byte[INITIAL_BUFFER_SIZE];
+		private int size;
+
+		void reset(){
+			size = 0;
+		}
+
+		/**
+		 * Writes part of the content to the output, a buffer at a time. Overwrites anything appended.
+		 */
+		void copy(SerializedContent content, int offset, int count, OutputStream output) throws IOException{
+			while(count > 0){
+				int chunk = Math.min(count, bytes.length);
+				content.copyTo(offset, bytes, 0, chunk);
+				output.write(bytes, 0, chunk);
+				offset += chunk;
+				count -= chunk;
+			}
+		}
+
+		void writeTo(OutputStream output) throws IOException{
+			output.write(bytes, 0, size);
+		}
+
+		/**
+		 * Appends the value as the inside of a JSON string, UTF-8 encoded. A surrogate without its other half can't be
+		 * encoded, so it's replaced with U+FFFD.
+		 * @return how many characters were appended
+		 */
+		int appendJsonEscaped(String value){
+			// Enough for the worst case, every character escaped as backslash-u plus 4 hex digits
+			ensureCapacity(value.length() * 6);
+			int characters = 0;
+			for(int i = 0; i < value.length(); i++){
+				char c = value.charAt(i);
+				if(c == '"' || c == '\\'){
+					bytes[size++] = '\\';
+					bytes[size++] = (byte) c;
+					characters += 2;
+				}
+				else if(c < 0x20){
+					bytes[size++] = '\\';
+					bytes[size++] = 'u';
+					bytes[size++] = '0';
+					bytes[size++] = '0';
+					bytes[size++] = HEX[c >> 4];
+					bytes[size++] = HEX[c & 0xF];
+					characters += 6;
+				}
+				else if(c < 0x80){
+					bytes[size++] = (byte) c;
+					characters++;
+				}
+				else if(c < 0x800){
+					bytes[size++] = (byte) (0xC0 | (c >> 6));
+					bytes[size++] = (byte) (0x80 | (c & 0x3F));
+					characters++;
+				}
+				else if(Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))){
+					int codePoint = Character.toCodePoint(c, value.charAt(++i));
+					bytes[size++] = (byte) (0xF0 | (codePoint >> 18));
+					bytes[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+					bytes[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+					bytes[size++] = (byte) (0x80 | (codePoint & 0x3F));
+					characters += 2;
+				}
+				else if(Character.isSurrogate(c)){
+					bytes[size++] = (byte) 0xEF;
+					bytes[size++] = (byte) 0xBF;
+					bytes[size++] = (byte) 0xBD;
+					characters++;
+				}
+				else{
+					bytes[size++] = (byte) (0xE0 | (c >> 12));
+					bytes[size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+					bytes[size++] = (byte) (0x80 | (c & 0x3F));
+					characters++;
+				}
+			}
+			return characters;
+		}
+
+		private void ensureCapacity(int extra){
+			if(size + extra > bytes.length){
+				bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+			}
+		}
+	}
+}
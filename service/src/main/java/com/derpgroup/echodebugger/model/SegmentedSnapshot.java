@@ -0,0 +1,174 @@
+package com.derpgroup.echodebugger.model;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Splits the user snapshot into a fixed number of segment files, bucketed by a hash of the echoId.
+ * Only segments holding modified users need to be rewritten on a flush.
+ *
+ * Segments live in a directory next to the content file, e.g. users.json.segments/007.json (or 007.smile)
+ */
+public class SegmentedSnapshot {
+	private static final Logger LOG = LoggerFactory.getLogger(SegmentedSnapshot.class);
+	private static final String DIRECTORY_SUFFIX = ".segments";
+
+	private final Path directory;
+	private final Path legacyContentFile;
+	private final int segmentCount;
+	private final String extension;
+	private final Pattern segmentFilePattern;
+	private final ObjectMapper mapper;
+	private final UserFileReader reader;
+	private final SnapshotFiles snapshotFiles;
+	private volatile boolean fullRewriteRequired;
+
+	public SegmentedSnapshot(String contentFile, int segmentCount, SnapshotFormat format, SnapshotFiles snapshotFiles){
+		this.legacyContentFile = Paths.get(contentFile);
+		this.directory = Paths.get(contentFile + DIRECTORY_SUFFIX);
+		this.segmentCount = segmentCount;
+		this.extension = format.getExtension();
+		// Matches a segment, or an older generation of one, e.g. 007.json or 007.json.2
+		this.segmentFilePattern = Pattern.compile("(\\d+)" + Pattern.quote(extension) + "(\\.\\d+)?");
+		this.mapper = format.createMapper();
+		this.reader = new UserFileReader(mapper);
+		this.snapshotFiles = snapshotFiles;
+	}
+
+	public int getSegmentCount(){
+		return segmentCount;
+	}
+
+	public int segmentOf(String echoId){
+		return (echoId.hashCode() & Integer.MAX_VALUE) % segmentCount;
+	}
+
+	/**
+	 * True if there is anything to read, either segments or the legacy content file
+	 */
+	public boolean exists() throws IOException{
+		return !listSegmentNumbers().isEmpty() || snapshotFiles.exists(legacyContentFile);
+	}
+
+	/**
+	 * True if the segments on disk don't match the current layout (a migration from the single content file,
+	 * or a change of segmentCount), in which case every segment needs to be rewritten.
+	 */
+	public boolean isFullRewriteRequired(){
+		return fullRewriteRequired;
+	}
+
+	/**
+	 * Streams every user to the consumer. Segments are read in parallel, so both callbacks must be thread-safe.
+	 * If no segments exist yet, falls back to the single legacy content file.
+	 * @param discard takes back a user already passed to the consumer, when its segment turns out to be
+	 * unreadable and an older generation of the segment is loaded instead
+	 */
+	public void read(Consumer<User> consumer, Consumer<String> discard) throws IOException{
+		fullRewriteRequired = false;
+
+		Set<Integer> segmentNumbers = listSegmentNumbers();
+		if(segmentNumbers.isEmpty()){
+			Files.createDirectories(directory);
+			if(snapshotFiles.exists(legacyContentFile)){
+				LOG.info("No user segments found, migrating from "+legacyContentFile);
+				readFile(legacyContentFile, -1, consumer, discard);
+				fullRewriteRequired = true;
+			}
+			return;
+		}
+
+		try {
+			segmentNumbers.parallelStream().forEach(segment -> {
+				try {
+					readFile(segmentPath(segment), segment, consumer, discard);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		if(fullRewriteRequired){
+			LOG.info("User segments do not match a segment count of "+segmentCount+", they will all be rewritten");
+		}
+	}
+
+	/**
+	 * Replaces the contents of a single segment
+	 * @return the number of bytes written
+	 */
+	public long writeSegment(int segment, List<User> users) throws IOException{
+		byte[] content = mapper.writeValueAsBytes(users);
+		snapshotFiles.write(segmentPath(segment), content);
+		return content.length;
+	}
+
+	/**
+	 * Removes segment files left over from a larger segment count. Only call this after a full rewrite.
+	 */
+	public void deleteStaleSegments() throws IOException{
+		for(Integer segment : listSegmentNumbers()){
+			if(segment >= segmentCount){
+				snapshotFiles.deleteAll(segmentPath(segment));
+			}
+		}
+		fullRewriteRequired = false;
+	}
+
+	// Local helper functions
+	private void readFile(Path file, int segment, Consumer<User> consumer, Consumer<String> discard) throws IOException{
+		List<String> loaded = new ArrayList<>();
+		Path loadedFile = snapshotFiles.loadNewest(file, generation -> {
+			reader.read(generation, user -> {
+				if(segment >= 0 && segment != segmentOf(user.getEchoId())){
+					fullRewriteRequired = true;
+				}
+				loaded.add(user.getEchoId());
+				consumer.accept(user);
+			});
+		}, () -> {
+			loaded.forEach(discard);
+			loaded.clear();
+		});
+		// Recovered from an older generation, so get a good copy back in place
+		if(loadedFile != null && !loadedFile.equals(file)){
+			fullRewriteRequired = true;
+		}
+	}
+
+	private Path segmentPath(int segment){
+		return directory.resolve(String.format("%03d", segment) + extension);
+	}
+
+	private Set<Integer> listSegmentNumbers() throws IOException{
+		Set<Integer> segmentNumbers = new TreeSet<>();
+		if(!Files.isDirectory(directory)){return segmentNumbers;}
+
+		try(DirectoryStream<Path> stream = Files.newDirectoryStream(directory)){
+			for(Path file : stream){
+				Matcher matcher = segmentFilePattern.matcher(file.getFileName().toString());
+				if(matcher.matches()){
+					segmentNumbers.add(Integer.parseInt(matcher.group(1)));
+				}
+			}
+		}
+		return segmentNumbers;
+	}
+}
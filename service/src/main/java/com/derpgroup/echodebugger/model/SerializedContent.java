@@ -0,0 +1,145 @@
+package com.derpgroup.echodebugger.model;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Map;
+
+import com.derpgroup.echodebugger.util.ResponderUtils;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+/**
+ * The serialized form of a stored response. Responses are played far more often than they're uploaded,
+ * so they are serialized once and the bytes are reused for every request.
+ *
+ * The bytes are either on the heap, or in a {@link MappedPayloadStore}. Either way they are written out as-is,
+ * without building the response back into objects.
+ */
+@JsonSerialize(using = SerializedContent.Serializer.class)
+public class SerializedContent {
+
+	private static final ObjectMapper mapper = new ObjectMapper();
+	private static final ObjectReader mapReader = mapper.readerFor(new TypeReference<Map<String, Object>>(){});
+	private static final int COPY_BUFFER_SIZE = 8192;
+
+	// Read-only, and only ever read through a duplicate so it can be shared between threads
+	private final ByteBuffer bytes;
+	private final int length;
+
+	public SerializedContent(String serialized){
+		this(ByteBuffer.wrap(serialized.getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer(), serialized.length());
+	}
+
+	SerializedContent(ByteBuffer bytes, int length){
+		this.bytes = bytes;
+		this.length = length;
+	}
+
+	/**
+	 * Serializes the content. Returns null if there is no content, or it can't be serialized.
+	 */
+	public static SerializedContent of(Object content){
+		if(content == null){return null;}
+		String serialized = ResponderUtils.serialize(content);
+		if(serialized == null){return null;}
+		return new SerializedContent(serialized);
+	}
+
+	/**
+	 * The length in characters, the same as {@link ResponderUtils#getLengthOfContent(Object)} would measure
+	 */
+	public int getLength() {return length;}
+
+	/**
+	 * The length of the UTF-8 encoded content
+	 */
+	public int getByteCount() {return bytes.capacity();}
+
+	public boolean isMapped() {return bytes.isDirect();}
+
+	public void writeTo(OutputStream output) throws IOException{
+		ByteBuffer source = bytes.duplicate();
+		byte[] buffer = new byte[Math.min(COPY_BUFFER_SIZE, source.remaining())];
+		while(source.hasRemaining()){
+			int count = Math.min(buffer.length, source.remaining());
+			source.get(buffer, 0, count);
+			output.write(buffer, 0, count);
+		}
+	}
+
+	/**
+	 * Copies the content into a new buffer, e.g. to move it into a {@link MappedPayloadStore}
+	 */
+	public void copyTo(ByteBuffer target){
+		target.put(bytes.duplicate());
+	}
+
+	/**
+	 * Copies part of the content into an array
+	 */
+	public void copyTo(int offset, byte[] target, int targetOffset, int count){
+		ByteBuffer source = bytes.duplicate();
+		source.position(offset);
+		source.get(target, targetOffset, count);
+	}
+
+	/**
+	 * Adds the content to a digest, e.g. to hash it for an ETag
+	 */
+	public void updateDigest(MessageDigest digest){
+		digest.update(bytes.duplicate());
+	}
+
+	public InputStream openStream(){
+		ByteBuffer source = bytes.duplicate();
+		return new InputStream(){
+			@Override
+			public int read() {
+				return source.hasRemaining() ? (source.get() & 0xFF) : -1;
+			}
+			@Override
+			public int read(byte[] buffer, int offset, int count) {
+				if(!source.hasRemaining()){return -1;}
+				count = Math.min(count, source.remaining());
+				source.get(buffer, offset, count);
+				return count;
+			}
+		};
+	}
+
+	/**
+	 * Builds the content back into a map. Only needed when something asks for the response as objects.
+	 */
+	public Map<String, Object> toMap() throws IOException{
+		return mapReader.readValue(openStream());
+	}
+
+	/**
+	 * Writes the content into another document, e.g. a snapshot, by copying tokens rather than building objects
+	 */
+	public static class Serializer extends StdSerializer<SerializedContent> {
+		private static final long serialVersionUID = 1L;
+
+		public Serializer(){
+			super(SerializedContent.class);
+		}
+
+		@Override
+		public void serialize(SerializedContent content, JsonGenerator generator, SerializerProvider provider) throws IOException{
+			try(JsonParser parser = mapper.getFactory().createParser(content.openStream())){
+				parser.nextToken();
+				generator.copyCurrentStructure(parser);
+			}
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package com.derpgroup.echodebugger.model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes snapshot files so that a crash can never leave a half written file behind.
+ *
+ * Content goes to a temp file, which is fsynced and then renamed over the target. The previous versions
+ * are kept as numbered generations (users.json.1, users.json.2, ...), and loading falls back to the newest
+ * generation that can be read in full. Writes can be rate-limited so a flush can't saturate the disk.
+ */
+public class SnapshotFiles {
+	public static final int DEFAULT_GENERATIONS = 3;
+	private static final Logger LOG = LoggerFactory.getLogger(SnapshotFiles.class);
+	private static final String TEMP_SUFFIX = ".tmp";
+	private static final int CHUNK_SIZE = 1024 * 1024;
+
+	public interface Loader {
+		void load(Path file) throws IOException;
+	}
+
+	private final int generations;
+	private final long bytesPerSecond;
+	private long nextWriteNanos = System.nanoTime();
+
+	/**
+	 * @param generations number of versions to keep, including the current one
+	 * @param bytesPerSecond write rate limit, or 0 for no limit
+	 */
+	public SnapshotFiles(int generations, long bytesPerSecond){
+		this.generations = Math.max(1, generations);
+		this.bytesPerSecond = bytesPerSecond;
+	}
+
+	public void write(Path target, byte[] content) throws IOException{
+		Path directory = target.toAbsolutePath().getParent();
+		Files.createDirectories(directory);
+		Path temp = target.resolveSibling(target.getFileName() + TEMP_SUFFIX);
+		try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)){
+			for(int offset = 0; offset < content.length; offset += CHUNK_SIZE){
+				int length = Math.min(CHUNK_SIZE, content.length - offset);
+				throttle(length);
+				ByteBuffer buffer = ByteBuffer.wrap(content, offset, length);
+				while(buffer.hasRemaining()){
+					channel.write(buffer);
+				}
+			}
+			channel.force(true);
+		}
+
+		// Shift the older generations down, overwriting the oldest
+		for(int i = generations - 2; i >= 0; i--){
+			Path source = generation(target, i);
+			if(Files.exists(source)){
+				Files.move(source, generation(target, i + 1), StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+		syncDirectory(directory);
+	}
+
+	/**
+	 * True if the target, or any older generation of it, exists
+	 */
+	public boolean exists(Path target){
+		return !existingGenerations(target).isEmpty();
+	}
+
+	/**
+	 * Loads the newest generation that can be read without error.
+	 * @param discard called after a failed load, to throw away whatever that load had already produced
+	 * @return the file that was loaded, or null if no generation exists
+	 */
+	public Path loadNewest(Path target, Loader loader, Runnable discard) throws IOException{
+		IOException failure = null;
+		for(Path file : existingGenerations(target)){
+			try {
+				loader.load(file);
+				if(failure != null){
+					LOG.warn("Recovered "+target+" from the older snapshot "+file);
+				}
+				return file;
+			} catch (IOException e) {
+				LOG.error("Could not read snapshot "+file+", trying an older generation", e);
+				discard.run();
+				failure = e;
+			}
+		}
+		if(failure != null){
+			throw failure;
+		}
+		return null;
+	}
+
+	/**
+	 * Deletes the target along with all of its generations
+	 */
+	public void deleteAll(Path target) throws IOException{
+		for(Path file : existingGenerations(target)){
+			Files.delete(file);
+		}
+	}
+
+	// Local helper functions
+	private List<Path> existingGenerations(Path target){
+		List<Path> files = new ArrayList<>();
+		for(int i = 0; i < generations; i++){
+			Path file = generation(target, i);
+			if(Files.exists(file)){
+				files.add(file);
+			}
+		}
+		return files;
+	}
+
+	private Path generation(Path target, int generation){
+		if(generation == 0){return target;}
+		return target.resolveSibling(target.getFileName() + "." + generation);
+	}
+
+	/**
+	 * Sleeps as needed to keep writes under bytesPerSecond. Unused allowance is capped at a second's worth.
+	 */
+	private synchronized void throttle(int bytes){
+		if(bytesPerSecond <= 0){return;}
+
+		long now = System.nanoTime();
+		nextWriteNanos = Math.max(nextWriteNanos, now - TimeUnit.SECONDS.toNanos(1));
+		long waitNanos = nextWriteNanos - now;
+		nextWriteNanos += TimeUnit.SECONDS.toNanos(1) * bytes / bytesPerSecond;
+		if(waitNanos > 0){
+			try {
+				TimeUnit.NANOSECONDS.sleep(waitNanos);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	// Makes the rename itself durable. Not every platform allows opening a directory, which is fine.
+	private void syncDirectory(Path directory){
+		if(directory == null){return;}
+		try(FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)){
+			channel.force(true);
+		} catch (IOException e) {
+			LOG.debug("Could not sync directory "+directory, e);
+		}
+	}
+}
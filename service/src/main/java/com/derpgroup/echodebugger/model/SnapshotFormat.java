@@ -0,0 +1,31 @@
+package com.derpgroup.echodebugger.model;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+/**
+ * On-disk encodings for user snapshots. JSON is human readable, SMILE is Jackson's binary JSON,
+ * which is smaller and quicker to encode and decode, but needs the convert-snapshot command to inspect.
+ */
+public enum SnapshotFormat {
+	JSON(".json"),
+	SMILE(".smile");
+
+	private final String extension;
+
+	private SnapshotFormat(String extension){
+		this.extension = extension;
+	}
+
+	public String getExtension() {return extension;}
+
+	public ObjectMapper createMapper(){
+		ObjectMapper mapper = (this == SMILE) ? new ObjectMapper(new SmileFactory()) : new ObjectMapper();
+		mapper.registerModule(new JavaTimeModule());
+		mapper.configure( SerializationFeature.WRITE_DATE_TIMESTAMPS_AS_NANOSECONDS, false );
+		mapper.configure( SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false );
+		return mapper;
+	}
+}
@@ -0,0 +1,60 @@
+package com.derpgroup.echodebugger.model;
+
+import java.util.Collection;
+
+/**
+ * Totals over every stored user, for the gauges
+ */
+public class StoredContent {
+
+	public static final StoredContent NONE = new StoredContent(0, 0, 0);
+
+	private final long users;
+	private final long intents;
+	private final long payloadBytes;
+
+	public StoredContent(long users, long intents, long payloadBytes){
+		this.users = users;
+		this.intents = intents;
+		this.payloadBytes = payloadBytes;
+	}
+
+	/**
+	 * Counts the users by reading each of their intents
+	 */
+	public static StoredContent of(Collection<User> users){
+		StoredContent total = NONE;
+		for(User user : users){
+			total = total.plus(of(user));
+		}
+		return total;
+	}
+
+	/**
+	 * Counts one user by reading its intents
+	 */
+	public static StoredContent of(User user){
+		long intents = 0;
+		long payloadBytes = 0;
+		for(IntentResponses intentResponses : user.getIntents().values()){
+			intents++;
+			payloadBytes += intentResponses.getPayloadBytes();
+		}
+		return new StoredContent(1, intents, payloadBytes);
+	}
+
+	public long getUsers() {return users;}
+	public long getIntents() {return intents;}
+	/**
+	 * The serialized size of every stored response, whether it's on the heap, in the payload store or in cold storage
+	 */
+	public long getPayloadBytes() {return payloadBytes;}
+
+	public StoredContent plus(StoredContent other){
+		return new StoredContent(users + other.users, intents + other.intents, payloadBytes + other.payloadBytes);
+	}
+
+	public StoredContent minus(StoredContent other){
+		return new StoredContent(users - other.users, intents - other.intents, payloadBytes - other.payloadBytes);
+	}
+}
@@ -0,0 +1,30 @@
+package com.derpgroup.echodebugger.model;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Running totals of the stored content, changed as each user is saved or removed, so reading them never counts every user
+ */
+public class StoredContentTotals {
+
+	private final LongAdder users = new LongAdder();
+	private final LongAdder intents = new LongAdder();
+	private final LongAdder payloadBytes = new LongAdder();
+
+	public void add(StoredContent content){
+		users.add(content.getUsers());
+		intents.add(content.getIntents());
+		payloadBytes.add(content.getPayloadBytes());
+	}
+
+	public void subtract(StoredContent content){
+		add(StoredContent.NONE.minus(content));
+	}
+
+	/**
+	 * The totals as of this call. Changes made meanwhile may be partly included.
+	 */
+	public StoredContent get(){
+		return new StoredContent(users.sum(), intents.sum(), payloadBytes.sum());
+	}
+}
@@ -1,33 +1,47 @@
 package com.derpgroup.echodebugger.model;
 
+import java.security.MessageDigest;
 import java.time.Instant;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
 
+import com.derpgroup.echodebugger.util.ResponderUtils;
 import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 
 public class User {
 
 	private UUID id;
 	private String echoId;
 
+	// Timestamps and counters are updated by concurrent requests for the same user, so they must never be read-modify-written
 	@JsonFormat(shape = JsonFormat.Shape.STRING, pattern="yyyy-MM-dd'T'HH:mm:ss.SSSXXX", timezone = "PST")
 	private Instant creationTime;
 	@JsonFormat(shape = JsonFormat.Shape.STRING, pattern="yyyy-MM-dd'T'HH:mm:ss.SSSXXX", timezone = "PST")
-	private Instant lastUploadTime;
+	private volatile Instant lastUploadTime;
 	@JsonFormat(shape = JsonFormat.Shape.STRING, pattern="yyyy-MM-dd'T'HH:mm:ss.SSSXXX", timezone = "PST")
-	private Instant lastWebDownloadTime;
+	private volatile Instant lastWebDownloadTime;
 	@JsonFormat(shape = JsonFormat.Shape.STRING, pattern="yyyy-MM-dd'T'HH:mm:ss.SSSXXX", timezone = "PST")
-	private Instant lastEchoDownloadTime;
+	private volatile Instant lastEchoDownloadTime;
 
-	private int numContentUploads;
-	private int numContentDownloads;
-	private int numCharactersUploaded;
-	private int numCharactersDownloaded;
-	private int numUploadsTooLarge;
+	private final LongAdder numContentUploads = new LongAdder();
+	private final LongAdder numContentDownloads = new LongAdder();
+	private final LongAdder numCharactersUploaded = new LongAdder();
+	private final LongAdder numCharactersDownloaded = new LongAdder();
+	private final LongAdder numUploadsTooLarge = new LongAdder();
 
-	private Map<String,IntentResponses> intents = new HashMap<>();
+	// Never modified in place. Every change swaps in a new copy, so a snapshot can serialize the map while requests keep writing
+	private volatile Map<String,IntentResponses> intents = Collections.emptyMap();
+
+	// What the user DAO last counted towards its stored content totals for this user
+	@JsonIgnore
+	private volatile StoredContent countedContent = StoredContent.NONE;
 
 	public User(){}
 	public User(String echoId){
@@ -40,16 +54,23 @@ public class User {
 	public void setId(UUID id) {this.id = id;}
 	public String getEchoId() {return echoId;}
 	public void setEchoId(String echoId) {this.echoId = echoId;}
+	/**
+	 * Returns a read-only view of the intents as of this call. Use putIntent and removeIntent to change them.
+	 */
 	public Map<String, IntentResponses> getIntents() {return intents;}
-	public void setIntents(Map<String, IntentResponses> intents) {this.intents = intents;}
-	public int getNumContentUploads() {return numContentUploads;}
-	public void setNumContentUploads(int numContentUploads) {this.numContentUploads = numContentUploads;}
-	public int getNumContentDownloads() {return numContentDownloads;}
-	public void setNumContentDownloads(int numContentDownloads) {this.numContentDownloads = numContentDownloads;}
-	public int getNumCharactersUploaded() {return numCharactersUploaded;}
-	public void setNumCharactersUploaded(int numCharactersUploaded) {this.numCharactersUploaded = numCharactersUploaded;}
-	public int getNumCharactersDownloaded() {return numCharactersDownloaded;}
-	public void setNumCharactersDownloaded(int numCharactersDownloaded) {this.numCharactersDownloaded = numCharactersDownloaded;}
+	public void setIntents(Map<String, IntentResponses> intents) {this.intents = Collections.unmodifiableMap(new HashMap<>(intents));}
+	public long getNumContentUploads() {return numContentUploads.sum();}
+	public void setNumContentUploads(long numContentUploads) {reset(this.numContentUploads, numContentUploads);}
+	public void incrementNumContentUploads() {numContentUploads.increment();}
+	public long getNumContentDownloads() {return numContentDownloads.sum();}
+	public void setNumContentDownloads(long numContentDownloads) {reset(this.numContentDownloads, numContentDownloads);}
+	public void incrementNumContentDownloads() {numContentDownloads.increment();}
+	public long getNumCharactersUploaded() {return numCharactersUploaded.sum();}
+	public void setNumCharactersUploaded(long numCharactersUploaded) {reset(this.numCharactersUploaded, numCharactersUploaded);}
+	public void addNumCharactersUploaded(long numCharacters) {numCharactersUploaded.add(numCharacters);}
+	public long getNumCharactersDownloaded() {return numCharactersDownloaded.sum();}
+	public void setNumCharactersDownloaded(long numCharactersDownloaded) {reset(this.numCharactersDownloaded, numCharactersDownloaded);}
+	public void addNumCharactersDownloaded(long numCharacters) {numCharactersDownloaded.add(numCharacters);}
 	public Instant getCreationTime() {return creationTime;}
 	public void setCreationTime(Instant creationTime) {this.creationTime = creationTime;}
 	public Instant getLastUploadTime() {return lastUploadTime;}
@@ -58,6 +79,119 @@ public class User {
 	public void setLastWebDownloadTime(Instant lastWebDownloadTime) {this.lastWebDownloadTime = lastWebDownloadTime;}
 	public Instant getLastEchoDownloadTime() {return lastEchoDownloadTime;}
 	public void setLastEchoDownloadTime(Instant lastEchoDownloadTime) {this.lastEchoDownloadTime = lastEchoDownloadTime;}
-	public int getNumUploadsTooLarge() {return numUploadsTooLarge;}
-	public void setNumUploadsTooLarge(int numUploadsTooLarge) {this.numUploadsTooLarge = numUploadsTooLarge;}
+	public long getNumUploadsTooLarge() {return numUploadsTooLarge.sum();}
+	public void setNumUploadsTooLarge(long numUploadsTooLarge) {reset(this.numUploadsTooLarge, numUploadsTooLarge);}
+	public void incrementNumUploadsTooLarge() {numUploadsTooLarge.increment();}
+	@JsonIgnore
+	public StoredContent getCountedContent() {return countedContent;}
+	@JsonIgnore
+	public void setCountedContent(StoredContent countedContent) {this.countedContent = countedContent;}
+
+	/**
+	 * The most recent of the creation, upload and download times
+	 */
+	@JsonIgnore
+	public Instant getLastActiveTime(){
+		Instant lastActive = creationTime;
+		for(Instant time : new Instant[]{lastUploadTime, lastWebDownloadTime, lastEchoDownloadTime}){
+			if(time != null && (lastActive == null || time.isAfter(lastActive))){
+				lastActive = time;
+			}
+		}
+		return (lastActive != null) ? lastActive : Instant.EPOCH;
+	}
+
+	/**
+	 * Stores the responses for an intent, replacing any already there
+	 */
+	public synchronized void putIntent(String intentName, IntentResponses intentResponses){
+		Map<String, IntentResponses> updated = new HashMap<>(intents);
+		updated.put(intentName, intentResponses);
+		intents = Collections.unmodifiableMap(updated);
+	}
+
+	/**
+	 * Replaces the responses for an intent, but only if they are still the expected ones
+	 * @return false if the intent has changed since expected was read
+	 */
+	public synchronized boolean replaceIntent(String intentName, IntentResponses expected, IntentResponses replacement){
+		if(intents.get(intentName) != expected){return false;}
+		putIntent(intentName, replacement);
+		return true;
+	}
+
+	/**
+	 * Replaces every intent at once, but only if they are still the expected ones, e.g. to undo a change that couldn't be saved
+	 * @return false if the intents have changed since expected was read
+	 */
+	public synchronized boolean replaceIntents(Map<String, IntentResponses> expected, Map<String, IntentResponses> replacement){
+		if(intents != expected){return false;}
+		intents = replacement;
+		return true;
+	}
+
+	/**
+	 * Adds an uploaded response to its intent, as the default response or as a variant. See IntentResponses.merge.
+	 */
+	public synchronized void addIntentResponse(IntentResponses response){
+		addIntentResponses(Collections.singletonList(response));
+	}
+
+	/**
+	 * Adds an uploaded response to its intent, but only if the intent's current responses pass the precondition,
+	 * checked in the same change so no other upload can slip in between
+	 * @param precondition given the intent's current responses, or null if there aren't any
+	 * @return the intent's responses with the upload added, or null if the precondition failed
+	 */
+	public synchronized IntentResponses addIntentResponse(IntentResponses response, Predicate<IntentResponses> precondition){
+		IntentResponses current = intents.get(response.getIntentName());
+		if(!precondition.test(current)){return null;}
+		IntentResponses merged = IntentResponses.merge(current, response);
+		Map<String, IntentResponses> updated = new HashMap<>(intents);
+		updated.put(response.getIntentName(), merged);
+		intents = Collections.unmodifiableMap(updated);
+		return merged;
+	}
+
+	/**
+	 * A strong ETag for a set of intents, e.g. from getIntents, built from their names and each intent's ETag without reading any responses
+	 */
+	public static String etagOf(Map<String, IntentResponses> intents){
+		MessageDigest digest = ResponderUtils.newDigest();
+		for(Map.Entry<String, IntentResponses> intent : new TreeMap<>(intents).entrySet()){
+			ResponderUtils.updateDigest(digest, intent.getKey());
+			ResponderUtils.updateDigest(digest, intent.getValue().getEtag());
+		}
+		return ResponderUtils.toEtag(digest);
+	}
+
+	/**
+	 * Adds uploaded responses in one change, in order, so a later response for the same intent and conditions wins
+	 */
+	public synchronized void addIntentResponses(List<IntentResponses> responses){
+		if(responses.isEmpty()){return;}
+		Map<String, IntentResponses> updated = new HashMap<>(intents);
+		for(IntentResponses response : responses){
+			String intentName = response.getIntentName();
+			updated.put(intentName, IntentResponses.merge(updated.get(intentName), response));
+		}
+		intents = Collections.unmodifiableMap(updated);
+	}
+
+	/**
+	 * @return the responses that were removed, or null if the intent wasn't registered
+	 */
+	public synchronized IntentResponses removeIntent(String intentName){
+		if(!intents.containsKey(intentName)){return null;}
+		Map<String, IntentResponses> updated = new HashMap<>(intents);
+		IntentResponses removed = updated.remove(intentName);
+		intents = Collections.unmodifiableMap(updated);
+		return removed;
+	}
+
+	// Setters are only used when loading a user, so this doesn't need to be atomic
+	private static void reset(LongAdder counter, long value){
+		counter.reset();
+		counter.add(value);
+	}
 }
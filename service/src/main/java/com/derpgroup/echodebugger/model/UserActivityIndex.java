@@ -0,0 +1,140 @@
+package com.derpgroup.echodebugger.model;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Function;
+
+/**
+ * Keeps users in order of their most recent upload, newest first, so a listing can be read a page at a time
+ * without sorting every user. Users who never uploaded come last.
+ *
+ * Pages are read from a cursor, the position of the last user on the previous page, so a page costs the same
+ * however deep into the listing it is. A user who uploads while the listing is being read moves to the front,
+ * so it can be missed or seen twice, just as with any live listing.
+ */
+public class UserActivityIndex {
+
+	private static final Comparator<Key> ORDER = Comparator
+			.comparing((Key key) -> key.lastUpload, Comparator.nullsLast(Comparator.reverseOrder()))
+			.thenComparing(key -> key.echoId);
+	private static final String NEVER = "-";
+
+	private static final class Key {
+		final Instant lastUpload;
+		final String echoId;
+
+		Key(Instant lastUpload, String echoId){
+			this.lastUpload = lastUpload;
+			this.echoId = echoId;
+		}
+
+		String toCursor(){
+			String position = (lastUpload != null) ? lastUpload.getEpochSecond()+":"+lastUpload.getNano() : NEVER+":"+NEVER;
+			return Base64.getUrlEncoder().withoutPadding().encodeToString((position+":"+echoId).getBytes(StandardCharsets.UTF_8));
+		}
+
+		static Key fromCursor(String cursor){
+			try {
+				String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(":", 3);
+				if(parts.length != 3){return null;}
+				Instant lastUpload = NEVER.equals(parts[0]) ? null : Instant.ofEpochSecond(Long.parseLong(parts[0]), Long.parseLong(parts[1]));
+				return new Key(lastUpload, parts[2]);
+			} catch (IllegalArgumentException | ArithmeticException | java.time.DateTimeException e) {
+				return null;
+			}
+		}
+
+		@Override
+		public boolean equals(Object other){
+			if(!(other instanceof Key)){return false;}
+			Key key = (Key) other;
+			return Objects.equals(lastUpload, key.lastUpload) && echoId.equals(key.echoId);
+		}
+
+		@Override
+		public int hashCode(){
+			return echoId.hashCode();
+		}
+	}
+
+	private final ConcurrentSkipListMap<Key, String> byUpload = new ConcurrentSkipListMap<>(ORDER);
+	// Where each user currently sits in byUpload
+	private final ConcurrentHashMap<String, Key> keys = new ConcurrentHashMap<>();
+
+	/**
+	 * Moves the user to the position of its current upload time
+	 */
+	public void update(User user){
+		update(user.getEchoId(), user.getLastUploadTime());
+	}
+
+	/**
+	 * Moves the user to the position of this upload time, e.g. for a user that's not in memory
+	 */
+	public void update(String echoId, Instant lastUpload){
+		keys.compute(echoId, (id, current) -> {
+			Key key = new Key(lastUpload, id);
+			if(key.equals(current)){return current;}
+			if(current != null){
+				byUpload.remove(current);
+			}
+			byUpload.put(key, echoId);
+			return key;
+		});
+	}
+
+	/**
+	 * Adds the user only if it isn't already indexed, for filling the index while it's also being updated
+	 */
+	public void add(User user){
+		keys.computeIfAbsent(user.getEchoId(), echoId -> {
+			Key key = new Key(user.getLastUploadTime(), echoId);
+			byUpload.put(key, echoId);
+			return key;
+		});
+	}
+
+	public void remove(String echoId){
+		keys.computeIfPresent(echoId, (id, current) -> {
+			byUpload.remove(current);
+			return null;
+		});
+	}
+
+	/**
+	 * @param cursor from the previous page, or null for the first page
+	 * @param lookup finds the user for an echoId. Users it returns null for, e.g. just deleted, are left out.
+	 * @return the page, or null if the cursor isn't one this index handed out
+	 */
+	public UserPage page(String cursor, int limit, Function<String, User> lookup){
+		NavigableMap<Key, String> remaining = byUpload;
+		if(cursor != null){
+			Key after = Key.fromCursor(cursor);
+			if(after == null){return null;}
+			remaining = byUpload.tailMap(after, false);
+		}
+
+		List<User> users = new ArrayList<>(Math.min(limit, 1024));
+		Key last = null;
+		Iterator<Entry<Key, String>> entries = remaining.entrySet().iterator();
+		while(users.size() < limit && entries.hasNext()){
+			Entry<Key, String> entry = entries.next();
+			last = entry.getKey();
+			User user = lookup.apply(entry.getValue());
+			if(user != null){
+				users.add(user);
+			}
+		}
+		return new UserPage(users, (last != null && entries.hasNext()) ? last.toCursor() : null);
+	}
+}
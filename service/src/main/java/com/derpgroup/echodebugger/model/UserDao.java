@@ -20,6 +20,13 @@ public interface UserDao {
 	 */
 	public Boolean saveUser(User user);
 
+	/**
+	 * Saves a change to a user's statistics or timestamps, e.g. from a download. Unlike saveUser this doesn't wait
+	 * for the change to be durable, so a crash can lose the latest statistics but never an upload or a delete.
+	 * @param user
+	 */
+	public void recordActivity(User user);
+
 	/**
 	 * Returns the user account associated with this echoId. Returns null if it doesn't exist.
 	 * @param echoId
@@ -34,12 +41,33 @@ public interface UserDao {
 	 */
 	public User getUserById(String id);
 
+	/**
+	 * Returns the user account for either a user id or an echoId, preferring the user id. Returns null if neither exists.
+	 * @param anyId
+	 * @return
+	 */
+	public User resolve(String anyId);
+
 	/**
 	 * Gets all data from all users
 	 * @return
 	 */
 	public List<User> getAllUserData();
 
+	/**
+	 * Gets one page of users, most recent upload first
+	 * @param cursor the nextCursor of the previous page, or null for the first page
+	 * @param limit
+	 * @return the page, or null if the cursor isn't valid
+	 */
+	public UserPage getUsersByMostRecentUpload(String cursor, int limit);
+
+	/**
+	 * Counts every stored user, along with their intents and the size of their responses
+	 * @return
+	 */
+	public StoredContent getStoredContent();
+
 	/**
 	 * Deletes a user
 	 * @param user
@@ -2,54 +2,152 @@ package com.derpgroup.echodebugger.model;
 
 import io.dropwizard.setup.Environment;
 
-import java.io.File;
 import java.io.IOException;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.derpgroup.echodebugger.configuration.MainConfig;
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 
 public class UserDaoLocalImpl implements UserDao{
 	private final Logger LOG = LoggerFactory.getLogger(UserDaoLocalImpl.class);
+	private static final long DEFAULT_JOURNAL_COMPACTION_SIZE = 64L * 1024 * 1024;
+	private static final int LOCK_STRIPES = 64;
+	private static final int MAX_EVICTIONS_PER_PASS = 10000;
+	// Long enough that no request can still be holding on to a user when it's evicted
+	private static final Duration MIN_IDLE_BEFORE_EVICTION = Duration.ofMinutes(5);
 
-	private Map<String,String> mapOfIdToUserId = new HashMap<>();
-	private Map<String,User> mapOfUsersByEchoId = new HashMap<>();
+	// Every user is indexed twice in the one map: by echoId (a String) and by user id (a UserIdKey).
+	// Reads and snapshots are lock-free. Writes lock the stripe for the echoId so both keys change together.
+	private Map<Object,User> usersByAnyId = new ConcurrentHashMap<>();
+	private final ReentrantLock[] stripes = new ReentrantLock[LOCK_STRIPES];
+	// Users paged out to cold storage, indexed by both ids like usersByAnyId and changed under the same stripe locks.
+	// An id in neither map is unknown, without looking on disk.
+	private final Map<Object,ColdUserStore.Entry> coldUsersByAnyId = new ConcurrentHashMap<>();
+	// Every user, in memory or cold, in order of their last upload. Changed under the same stripe locks as usersByAnyId.
+	private final UserActivityIndex activityIndex = new UserActivityIndex();
+	// Totals over every user, in memory or cold. Changed under the same stripe locks as usersByAnyId.
+	private final StoredContentTotals storedContent = new StoredContentTotals();
 	private String contentFile;
-	private Boolean initialized = false;
+	private volatile Boolean initialized = false;
 	private ObjectMapper mapper;
+	private SnapshotFiles snapshotFiles;
+	private UserJournal journal;
+	private long journalCompactionSize;
+	private SegmentedSnapshot segments;
+	private MappedPayloadStore payloadStore;
+	private ColdUserStore coldUsers;
+	private int hotUserLimit;
+
+	// Users changed since the last snapshot was written
+	private Set<String> dirtyEchoIds = ConcurrentHashMap.newKeySet();
+	private volatile boolean fullRewritePending = false;
 
 	public UserDaoLocalImpl(MainConfig config, Environment env){
+		for(int i = 0; i < stripes.length; i++){
+			stripes[i] = new ReentrantLock();
+		}
 		contentFile = config.getEchoDebuggerConfig().getContentFile();
-		mapper = new ObjectMapper().registerModule(new JavaTimeModule());
-		mapper.configure( SerializationFeature.WRITE_DATE_TIMESTAMPS_AS_NANOSECONDS, false );
-		mapper.configure( SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false );
+		SnapshotFormat snapshotFormat = config.getEchoDebuggerConfig().getSnapshotFormat();
+		if(snapshotFormat == null){
+			snapshotFormat = SnapshotFormat.JSON;
+		}
+		mapper = snapshotFormat.createMapper();
+
+		Integer generations = config.getEchoDebuggerConfig().getSnapshotGenerations();
+		Long writeRate = config.getEchoDebuggerConfig().getSnapshotWriteRate();
+		snapshotFiles = new SnapshotFiles((generations != null) ? generations : SnapshotFiles.DEFAULT_GENERATIONS,
+				(writeRate != null) ? writeRate : 0);
+
+		// Journaling is optional, without it every save rewrites the whole content file
+		String journalFile = config.getEchoDebuggerConfig().getJournalFile();
+		if(StringUtils.isNotEmpty(journalFile)){
+			// The journal is line based, so it is always JSON
+			Long groupCommitWindow = config.getEchoDebuggerConfig().getGroupCommitWindowMillis();
+			Integer groupCommitMaxBatch = config.getEchoDebuggerConfig().getGroupCommitMaxBatch();
+			journal = new UserJournal(journalFile, SnapshotFormat.JSON.createMapper(),
+					(groupCommitWindow != null) ? groupCommitWindow : GroupCommitter.DEFAULT_WINDOW_MILLIS,
+					(groupCommitMaxBatch != null) ? groupCommitMaxBatch : GroupCommitter.DEFAULT_MAX_BATCH);
+			Long compactionSize = config.getEchoDebuggerConfig().getJournalCompactionSize();
+			journalCompactionSize = (compactionSize != null) ? compactionSize : DEFAULT_JOURNAL_COMPACTION_SIZE;
+		}
+
+		// Optionally keep stored responses in a memory-mapped file rather than on the heap
+		String payloadStoreFile = config.getEchoDebuggerConfig().getPayloadStoreFile();
+		if(StringUtils.isNotEmpty(payloadStoreFile)){
+			try {
+				Long payloadStoreMaxBytes = config.getEchoDebuggerConfig().getPayloadStoreMaxBytes();
+				payloadStore = (payloadStoreMaxBytes != null)
+						? new MappedPayloadStore(payloadStoreFile, MappedPayloadStore.DEFAULT_CHUNK_SIZE, payloadStoreMaxBytes)
+						: new MappedPayloadStore(payloadStoreFile);
+			} catch (IOException e) {
+				LOG.error("Could not open the payload store at "+payloadStoreFile+", responses will be kept on the heap",e);
+			}
+		}
+
+		// Optionally keep only the most recently active users in memory, and page the rest out to disk
+		Integer hotUserLimit = config.getEchoDebuggerConfig().getHotUserLimit();
+		if(hotUserLimit != null && hotUserLimit > 0){
+			this.hotUserLimit = hotUserLimit;
+			coldUsers = new ColdUserStore(contentFile, snapshotFormat, new SnapshotFiles(1, (writeRate != null) ? writeRate : 0));
+		}
+
+		Integer segmentCount = config.getEchoDebuggerConfig().getSegmentCount();
+		if(segmentCount != null && segmentCount > 0){
+			segments = new SegmentedSnapshot(contentFile, segmentCount, snapshotFormat, snapshotFiles);
+		}
 	}
 
 	/**
-	 * Loads the user account data from the local data file
+	 * Loads the user account data from the local data file, and then replays any journaled changes on top of it
 	 */
 	@Override
 	public void initialize(){
 		try {
-			List<User> userList = readUsersFromFile(contentFile);
-			for(User user : userList){
-				mapOfUsersByEchoId.put(user.getEchoId(), user);
-				mapOfIdToUserId.put(user.getId().toString(), user.getEchoId());
+			// Users go straight into the index as they're decoded, rather than via a list of every user
+			if(segments != null){
+				segments.read(this::putUser, this::removeUser);
+				fullRewritePending = segments.isFullRewriteRequired();
+			}
+			else{
+				loadUsersFromFile(contentFile, this::putUser, this::removeUser);
+			}
+			if(coldUsers != null){
+				coldUsers.readEntries(this::putColdEntry);
+			}
+
+			if(journal != null){
+				journal.replay(this::applyJournalRecord);
+
+				// Fold the replayed records into a fresh snapshot so the journal starts empty
+				if(writeSnapshot() == null){
+					throw new IOException("Could not write a snapshot of the replayed journal");
+				}
+				journal.reset();
+				journal.start();
+			}
+			else if(fullRewritePending){
+				writeSnapshot();
 			}
 			initialized = true;
 		} catch (IOException e) {
@@ -64,89 +162,631 @@ public class UserDaoLocalImpl implements UserDao{
 
 	@Override
 	public User createUser(String echoId){
-		User user = mapOfUsersByEchoId.get(echoId);
-		if(user != null){
-			// TODO: Consider an exception here. We shouldn't be trying to create a user where one exists
-			return user;
-		}
+		User user;
+		ReentrantLock lock = lockFor(echoId);
+		lock.lock();
+		try {
+			user = usersByAnyId.get(echoId);
+			if(user != null){
+				// TODO: Consider an exception here. We shouldn't be trying to create a user where one exists
+				return user;
+			}
+			user = loadColdUser(echoId);
+			if(user != null){
+				return user;
+			}
 
-		user = new User(echoId);
-		mapOfUsersByEchoId.put(echoId, user);
-		if(user.getId() != null){
-			mapOfIdToUserId.put(user.getId().toString(), echoId);
+			user = new User(echoId);
+			putUser(user);
+		} finally {
+			lock.unlock();
 		}
+		dirtyEchoIds.add(echoId);
+		appendToJournal(UserJournal.Record.saveUser(user));
 		return user;
 	}
 
 	@Override
 	public Boolean saveUser(User user){
-		mapOfUsersByEchoId.put(user.getEchoId(), user);
-		return true;
+		putUser(user);
+		dirtyEchoIds.add(user.getEchoId());
+		return appendToJournal(UserJournal.Record.saveUser(user));
+	}
+
+	/**
+	 * Marks the user dirty, and when journaling appends just its statistics without waiting for the fsync
+	 */
+	@Override
+	public void recordActivity(User user){
+		String echoId = user.getEchoId();
+		ReentrantLock lock = lockFor(echoId);
+		lock.lock();
+		try {
+			if(usersByAnyId.get(echoId) != user){
+				// Evicted while the request held it, so bring it back. A deleted or replaced user is left alone.
+				ColdUserStore.Entry entry = coldUsersByAnyId.get(echoId);
+				if(entry == null || user.getId() == null || !user.getId().equals(entry.getId())){return;}
+				putUser(user);
+			}
+			activityIndex.update(user);
+		} finally {
+			lock.unlock();
+		}
+		dirtyEchoIds.add(echoId);
+		if(journal == null){return;}
+		try {
+			journal.appendLater(() -> UserJournal.Record.updateStats(user)).whenComplete((written, e) -> {
+				if(e != null){
+					LOG.warn("Could not journal the statistics for ("+echoId+")",e);
+				}
+			});
+		} catch (IOException e) {
+			LOG.warn("Could not journal the statistics for ("+echoId+")",e);
+		}
 	}
 
 	@Override
 	public User getUserById(String id){
-		String echoId = mapOfIdToUserId.get(id);
-		if(StringUtils.isEmpty(echoId)){return null;}
-		return getUserByEchoId(echoId);
+		UserIdKey key = UserIdKey.parse(id);
+		if(key == null){return null;}
+		User user = usersByAnyId.get(key);
+		return (user != null) ? user : loadColdUser(key);
 	}
 
 	@Override
 	public User getUserByEchoId(String echoId){
-		return mapOfUsersByEchoId.get(echoId);
+		if(echoId == null){return null;}
+		User user = usersByAnyId.get(echoId);
+		return (user != null) ? user : loadColdUser(echoId);
 	}
 
+	@Override
+	public User resolve(String anyId){
+		if(anyId == null){return null;}
+		UserIdKey key = UserIdKey.parse(anyId);
+		if(key != null){
+			User user = getUserById(anyId);
+			if(user != null){return user;}
+		}
+		return getUserByEchoId(anyId);
+	}
+
+	/**
+	 * Returns every user in memory, without blocking requests. Users paged out to cold storage are not included.
+	 * Users added or removed while the list is built may or may not be in it, but each of those changes is also
+	 * marked dirty (and journaled), so the next snapshot picks it up.
+	 */
 	@Override
 	public List<User> getAllUserData() {
-		List<User> usersList = new ArrayList<User>();
-		for(Entry<String, User> entry : mapOfUsersByEchoId.entrySet()){
-			usersList.add(entry.getValue());
+		List<User> usersList = new ArrayList<User>(usersByAnyId.size() / 2);
+		for(Entry<Object, User> entry : usersByAnyId.entrySet()){
+			if(entry.getKey() instanceof String){
+				usersList.add(entry.getValue());
+			}
 		}
 		return usersList;
 	}
 
+	/**
+	 * Cold users are included, read from cold storage without bringing them back into memory
+	 */
+	@Override
+	public UserPage getUsersByMostRecentUpload(String cursor, int limit){
+		return activityIndex.page(cursor, limit, this::peekUser);
+	}
+
+	/**
+	 * Running totals over the users in memory and in cold storage, changed as each user is saved or removed
+	 */
+	@Override
+	public StoredContent getStoredContent(){
+		return storedContent.get();
+	}
+
 	@Override
 	public User deleteUser(User user){
-		if(mapOfUsersByEchoId.containsKey(user.getEchoId())){
-			mapOfUsersByEchoId.remove(user.getEchoId());
-		}
-		saveUsersToFile();
+		removeUser(user.getEchoId());
+		deleteColdUser(user.getEchoId());
+		dirtyEchoIds.add(user.getEchoId());
+		appendToJournal(UserJournal.Record.deleteUser(user));
 		return user;
 	}
 
 	@Override
 	public IntentResponses deleteIntent(User user, String intentName){
-		return user.getIntents().remove(intentName);
+		IntentResponses intentResponses = user.removeIntent(intentName);
+		if(intentResponses != null){
+			recount(user);
+			dirtyEchoIds.add(user.getEchoId());
+			appendToJournal(UserJournal.Record.deleteIntent(user, intentName));
+		}
+		return intentResponses;
+	}
+
+	/**
+	 * Pages the least recently active users out to cold storage, until no more than hotUserLimit are left in memory.
+	 * Users active in the last few minutes are never evicted, so the limit can be exceeded while they're all busy.
+	 * @return the number of users evicted
+	 */
+	public int evictIdleUsers(){
+		if(coldUsers == null){return 0;}
+		List<User> hotUsers = getAllUserData();
+		int excess = Math.min(hotUsers.size() - hotUserLimit, MAX_EVICTIONS_PER_PASS);
+		if(excess <= 0){return 0;}
+
+		// Keeps the least recently active idle users, with the most recently active of them at the head
+		Instant idleCutoff = Instant.now().minus(MIN_IDLE_BEFORE_EVICTION);
+		PriorityQueue<User> candidates = new PriorityQueue<>(excess + 1, Comparator.comparing(User::getLastActiveTime).reversed());
+		for(User user : hotUsers){
+			if(user.getLastActiveTime().isAfter(idleCutoff)){continue;}
+			candidates.add(user);
+			if(candidates.size() > excess){
+				candidates.poll();
+			}
+		}
+
+		int evicted = 0;
+		for(User user : candidates){
+			if(evict(user, idleCutoff)){
+				evicted++;
+			}
+		}
+		LOG.info("Evicted "+evicted+" idle users to cold storage, "+(hotUsers.size() - evicted)+" users remain in memory");
+		return evicted;
 	}
 
 	// Local helper functions
+	private ReentrantLock lockFor(String echoId){
+		return stripes[(echoId.hashCode() & Integer.MAX_VALUE) % stripes.length];
+	}
+
+	private void putUser(User user){
+		moveIntentsToPayloadStore(user);
+		ReentrantLock lock = lockFor(user.getEchoId());
+		lock.lock();
+		try {
+			removeColdEntry(user.getEchoId());
+			User previous = usersByAnyId.put(user.getEchoId(), user);
+			if(previous != null && previous.getId() != null && !previous.getId().equals(user.getId())){
+				usersByAnyId.remove(UserIdKey.of(previous.getId()));
+			}
+			if(user.getId() != null){
+				usersByAnyId.put(UserIdKey.of(user.getId()), user);
+			}
+			if(previous != null && previous != user){
+				uncount(previous);
+			}
+			count(user);
+			activityIndex.update(user);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Replaces what was counted for the user with its current intents. Call under the user's stripe lock.
+	 */
+	private void count(User user){
+		StoredContent content = StoredContent.of(user);
+		storedContent.add(content.minus(user.getCountedContent()));
+		user.setCountedContent(content);
+	}
+
+	private void uncount(User user){
+		storedContent.subtract(user.getCountedContent());
+		user.setCountedContent(StoredContent.NONE);
+	}
+
+	/**
+	 * Counts the user again after an intent was removed, unless it has since left memory
+	 */
+	private void recount(User user){
+		ReentrantLock lock = lockFor(user.getEchoId());
+		lock.lock();
+		try {
+			if(usersByAnyId.get(user.getEchoId()) == user){
+				count(user);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void moveIntentsToPayloadStore(User user){
+		if(payloadStore == null){return;}
+		for(Map.Entry<String, IntentResponses> intent : user.getIntents().entrySet()){
+			try {
+				// An upload that lands in the meantime wins, and is moved when it is saved
+				user.replaceIntent(intent.getKey(), intent.getValue(), intent.getValue().movedTo(payloadStore));
+			} catch (IOException e) {
+				LOG.warn("Could not move a response for ("+user.getEchoId()+") into the payload store, it stays on the heap",e);
+			}
+		}
+	}
+
+	private User removeUser(String echoId){
+		ReentrantLock lock = lockFor(echoId);
+		lock.lock();
+		try {
+			User user = usersByAnyId.remove(echoId);
+			if(user != null && user.getId() != null){
+				usersByAnyId.remove(UserIdKey.of(user.getId()));
+			}
+			if(user != null){
+				uncount(user);
+			}
+			activityIndex.remove(echoId);
+			return user;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Writes the user to cold storage and drops it from memory. The cold copy is written first, without the stripe lock,
+	 * then the user is only dropped if it wasn't replaced, used or changed in the meantime, so the copy is durable and
+	 * current before the user leaves memory. The user is marked dirty so the next snapshot leaves it out.
+	 * A request still holding the user brings it back into memory when it saves it.
+	 */
+	private boolean evict(User user, Instant idleCutoff){
+		String echoId = user.getEchoId();
+		// Every change to the user's intents counts it again, which replaces this
+		StoredContent counted = user.getCountedContent();
+		if(usersByAnyId.get(echoId) != user || user.getLastActiveTime().isAfter(idleCutoff)){
+			return false;
+		}
+		ColdUserStore.Entry entry;
+		try {
+			entry = coldUsers.write(user);
+		} catch (IOException e) {
+			LOG.error("Could not write user ("+echoId+") to cold storage",e);
+			return false;
+		}
+
+		ReentrantLock lock = lockFor(echoId);
+		lock.lock();
+		try {
+			if(usersByAnyId.get(echoId) != user || user.getLastActiveTime().isAfter(idleCutoff) || user.getCountedContent() != counted){
+				discardColdCopy(echoId);
+				return false;
+			}
+			usersByAnyId.remove(echoId);
+			if(user.getId() != null){
+				usersByAnyId.remove(UserIdKey.of(user.getId()));
+			}
+			uncount(user);
+			// The user keeps its place in the activity index
+			putColdEntry(entry);
+		} finally {
+			lock.unlock();
+		}
+		dirtyEchoIds.add(user.getEchoId());
+		return true;
+	}
+
+	/**
+	 * Brings a user back into memory from cold storage
+	 * @return the user, or null if it isn't in cold storage either
+	 */
+	private User loadColdUser(String echoId){
+		if(!coldUsersByAnyId.containsKey(echoId)){return null;}
+
+		User user;
+		ReentrantLock lock = lockFor(echoId);
+		lock.lock();
+		try {
+			// Another request may have loaded it already
+			user = usersByAnyId.get(echoId);
+			if(user != null){return user;}
+			if(!coldUsersByAnyId.containsKey(echoId)){return null;}
+
+			user = coldUsers.read(echoId);
+			if(user == null){
+				LOG.warn("User ("+echoId+") is missing from cold storage");
+				removeColdEntry(echoId);
+				activityIndex.remove(echoId);
+				return null;
+			}
+			putUser(user);
+		} catch (IOException e) {
+			// Carrying on as if the user didn't exist would let a new account replace it
+			throw new UncheckedIOException("Could not load user ("+echoId+") from cold storage", e);
+		} finally {
+			lock.unlock();
+		}
+		// The snapshots left this user out, so the next one has to include it again
+		dirtyEchoIds.add(echoId);
+		return user;
+	}
+
+	private User loadColdUser(UserIdKey key){
+		ColdUserStore.Entry entry = coldUsersByAnyId.get(key);
+		if(entry == null){return null;}
+		User user = loadColdUser(entry.getEchoId());
+		return (user != null && user.getId() != null && key.equals(UserIdKey.of(user.getId()))) ? user : null;
+	}
+
+	/**
+	 * The user in memory, or else a copy read from cold storage that isn't kept
+	 */
+	private User peekUser(String echoId){
+		User user = usersByAnyId.get(echoId);
+		if(user != null || !coldUsersByAnyId.containsKey(echoId)){return user;}
+		try {
+			return coldUsers.read(echoId);
+		} catch (IOException e) {
+			LOG.warn("Could not read user ("+echoId+") from cold storage",e);
+			return null;
+		}
+	}
+
+	/**
+	 * Indexes a cold user, unless it's already in memory. Call under the user's stripe lock, or while initializing.
+	 */
+	private void putColdEntry(ColdUserStore.Entry entry){
+		if(usersByAnyId.containsKey(entry.getEchoId())){return;}
+		ColdUserStore.Entry previous = coldUsersByAnyId.put(entry.getEchoId(), entry);
+		if(previous != null){
+			storedContent.subtract(previous.toStoredContent());
+		}
+		storedContent.add(entry.toStoredContent());
+		if(entry.getId() != null){
+			coldUsersByAnyId.put(UserIdKey.of(entry.getId()), entry);
+		}
+		activityIndex.update(entry.getEchoId(), entry.getLastUploadTime());
+	}
+
+	/**
+	 * Call under the user's stripe lock
+	 * @return false if the user wasn't cold
+	 */
+	private boolean removeColdEntry(String echoId){
+		ColdUserStore.Entry entry = coldUsersByAnyId.remove(echoId);
+		if(entry == null){return false;}
+		storedContent.subtract(entry.toStoredContent());
+		if(entry.getId() != null){
+			coldUsersByAnyId.remove(UserIdKey.of(entry.getId()));
+		}
+		return true;
+	}
+
+	/**
+	 * Deletes a cold copy written for an eviction that didn't go ahead. Call under the user's stripe lock.
+	 */
+	private void discardColdCopy(String echoId){
+		// The user may have been evicted again since, in which case the copy is in use
+		if(coldUsersByAnyId.containsKey(echoId)){return;}
+		try {
+			coldUsers.delete(echoId);
+		} catch (IOException e) {
+			// Harmless, a user in memory takes precedence over its cold copy
+			LOG.warn("Could not delete the unused cold copy of user ("+echoId+")",e);
+		}
+	}
+
+	private void deleteColdUser(String echoId){
+		if(coldUsers == null){return;}
+		ReentrantLock lock = lockFor(echoId);
+		lock.lock();
+		try {
+			if(removeColdEntry(echoId)){
+				activityIndex.remove(echoId);
+			}
+			coldUsers.delete(echoId);
+		} catch (IOException e) {
+			LOG.error("Could not delete user ("+echoId+") from cold storage",e);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void applyJournalRecord(UserJournal.Record record){
+		dirtyEchoIds.add(record.getEchoId());
+		switch(record.getOp()){
+		case SAVE_USER:
+			putUser(record.getUser());
+			break;
+		case DELETE_USER:
+			removeUser(record.getEchoId());
+			deleteColdUser(record.getEchoId());
+			break;
+		case DELETE_INTENT:
+			User user = getUserByEchoId(record.getEchoId());
+			if(user != null){
+				user.removeIntent(record.getIntentName());
+				recount(user);
+			}
+			break;
+		case UPDATE_STATS:
+			User active = getUserByEchoId(record.getEchoId());
+			// Only if it's still the same account, and not one created since under the same echoId
+			if(active != null && record.getStats() != null && active.getId() != null && active.getId().equals(record.getStats().getId())){
+				record.getStats().applyTo(active);
+				activityIndex.update(active);
+			}
+			break;
+		default:
+		}
+	}
+
+	private Boolean appendToJournal(UserJournal.Record record){
+		if(journal == null){return true;}
+		try {
+			journal.append(record);
+			return true;
+		} catch (IOException e) {
+			LOG.error("Could not journal "+record.getOp()+" for ("+record.getEchoId()+")",e);
+			return false;
+		}
+	}
+
 	protected List<User> readUsersFromFile(String fileName) throws IOException{
-		final File file = new File(fileName);
-		if(file.createNewFile()){
+		Map<String,User> users = new LinkedHashMap<>();
+		loadUsersFromFile(fileName, user -> users.put(user.getEchoId(), user), users::remove);
+		return new ArrayList<>(users.values());
+	}
+
+	/**
+	 * Streams users from the newest readable generation of the file
+	 * @param discard takes back a user passed to the consumer from a generation that turned out to be unreadable
+	 */
+	protected void loadUsersFromFile(String fileName, Consumer<User> consumer, Consumer<String> discard) throws IOException{
+		Path file = Paths.get(fileName);
+		if(!snapshotFiles.exists(file)){
 			LOG.info("Created blank user data file for use");
 			writeToFile(new ArrayList<User>(),fileName);
 		}
 
-		String content = new String(Files.readAllBytes(Paths.get(fileName)),Charset.defaultCharset());
-		return mapper.readValue(content, new TypeReference<List<User>>(){});
+		UserFileReader reader = new UserFileReader(mapper);
+		List<String> loaded = new ArrayList<>();
+		Path loadedFile = snapshotFiles.loadNewest(file, generation -> {
+			reader.read(generation, user -> {
+				loaded.add(user.getEchoId());
+				consumer.accept(user);
+			});
+		}, () -> {
+			loaded.forEach(discard);
+			loaded.clear();
+		});
+		// Recovered from an older generation, so get a good copy back in place
+		if(loadedFile != null && !loadedFile.equals(file)){
+			fullRewritePending = true;
+		}
+	}
+
+	/**
+	 * Writes out the users that changed since the last save. When journaling, this only happens once the journal
+	 * has grown past its compaction size, since the journal already holds every change made since the last snapshot.
+	 * @return what was written, or null if the save failed
+	 */
+	public FlushStats saveUsersToFile(){
+		if(journal != null){
+			return compactJournal();
+		}
+		return writeSnapshot();
+	}
+
+	public boolean isDirty(){
+		return fullRewritePending || !dirtyEchoIds.isEmpty();
+	}
+
+	public int getDirtyUserCount(){
+		return dirtyEchoIds.size();
+	}
+
+	/**
+	 * Waits for pending journal writes and releases the files. Call after the final save.
+	 */
+	public void close(){
+		try {
+			if(journal != null){
+				journal.close();
+			}
+			if(payloadStore != null){
+				payloadStore.close();
+			}
+		} catch (IOException e) {
+			LOG.error("There was a problem closing the user data files",e);
+		}
+	}
+
+	/**
+	 * Rotates the journal and writes a snapshot covering it. A journal left rotated by a compaction whose snapshot
+	 * failed blocks the next rotation, so it's folded into the next snapshot that succeeds and the journal is rotated again.
+	 */
+	protected FlushStats compactJournal(){
+		if(journal.size() < journalCompactionSize && !journal.isRotationPending()){return FlushStats.NONE;}
+		try {
+			// Anything journaled after the rotation is replayed on top of this snapshot, so nothing can be lost
+			boolean rotated = journal.rotate();
+			FlushStats stats = writeSnapshot();
+			if(stats == null){return null;}
+			// The snapshot holds everything in memory, so it also covers a rotated journal left over from a failed compaction
+			journal.completeRotation();
+			if(rotated){return stats;}
+
+			FlushStats compacted = compactJournal();
+			return (compacted != null) ? stats.plus(compacted) : null;
+		} catch (IOException e) {
+			LOG.error("There was a problem compacting the user journal",e);
+			return null;
+		}
 	}
 
-	public void saveUsersToFile(){
-		List<User> userList = getAllUserData();
+	/**
+	 * Writes the snapshot if anything has changed. With segments, only the segments holding changed users are written.
+	 *
+	 * Nothing is locked while writing. A user's intents are copy-on-write and its other fields are individually atomic,
+	 * so serializing a user that a request is changing sees either the old or the new version of each field.
+	 * That request marks the user dirty again, so the next snapshot has the final state.
+	 * @return what was written, or null if the snapshot could not be written
+	 */
+	protected FlushStats writeSnapshot(){
+		if(!isDirty()){return FlushStats.NONE;}
+
+		// Anything modified after being drained here is marked dirty again, and picked up by the next save
+		Set<String> drained = new HashSet<>();
+		for(String echoId : dirtyEchoIds){
+			dirtyEchoIds.remove(echoId);
+			drained.add(echoId);
+		}
+		boolean fullRewrite = fullRewritePending;
+		fullRewritePending = false;
+
 		try {
-			writeToFile(userList, contentFile);
+			if(segments == null){
+				List<User> users = getAllUserData();
+				return new FlushStats(users.size(), writeToFile(users, contentFile));
+			}
+			return writeSegments(drained, fullRewrite);
 		} catch (IOException e) {
-			LOG.debug("There was a problem saving user data",e);
+			LOG.error("There was a problem saving user data",e);
+			dirtyEchoIds.addAll(drained);
+			fullRewritePending |= fullRewrite;
+			return null;
 		}
 	}
 
-	public void writeToFile(List<User> userList, String fileName) throws IOException{
-		final File file = new File(fileName);
-		if(file.createNewFile()){
-			LOG.info("Created new user data file for use");
+	private FlushStats writeSegments(Set<String> dirtyUsers, boolean fullRewrite) throws IOException{
+		Map<Integer,List<User>> dirtySegments = new HashMap<>();
+		if(fullRewrite){
+			for(int segment = 0; segment < segments.getSegmentCount(); segment++){
+				dirtySegments.put(segment, new ArrayList<>());
+			}
+		}
+		else{
+			for(String echoId : dirtyUsers){
+				dirtySegments.putIfAbsent(segments.segmentOf(echoId), new ArrayList<>());
+			}
+		}
+
+		for(User user : getAllUserData()){
+			List<User> segmentUsers = dirtySegments.get(segments.segmentOf(user.getEchoId()));
+			if(segmentUsers != null){
+				segmentUsers.add(user);
+			}
 		}
-		String content = mapper.writeValueAsString(userList);
 
-		FileUtils.writeStringToFile(file, content, Charset.defaultCharset());
+		int usersWritten = 0;
+		long bytesWritten = 0;
+		for(Entry<Integer, List<User>> entry : dirtySegments.entrySet()){
+			usersWritten += entry.getValue().size();
+			bytesWritten += segments.writeSegment(entry.getKey(), entry.getValue());
+		}
+		if(fullRewrite){
+			segments.deleteStaleSegments();
+		}
+		LOG.debug("Wrote "+dirtySegments.size()+" user segments ("+bytesWritten+" bytes) for "+dirtyUsers.size()+" changed users");
+		return new FlushStats(usersWritten, bytesWritten);
+	}
+
+	/**
+	 * Replaces the file in one step, so a crash leaves either the old or the new snapshot on disk and never a partial one
+	 * @return the number of bytes written
+	 */
+	public long writeToFile(List<User> userList, String fileName) throws IOException{
+		byte[] content = mapper.writeValueAsBytes(userList);
+		snapshotFiles.write(Paths.get(fileName), content);
+		return content.length;
 	}
 }
@@ -0,0 +1,598 @@
+package com.derpgroup.echodebugger.model;
+
+import io.dropwizard.lifecycle.Managed;
+import io.dropwizard.setup.Environment;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.derpgroup.echodebugger.configuration.MainConfig;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Keeps users in an embedded MVStore file: one record per user keyed by echoId, and an index from user id to echoId.
+ * What each user stores is counted alongside, with running totals, so the gauges never read every user.
+ *
+ * Every change is committed and synced to disk before returning, and both maps change in the same commit.
+ * Changes from concurrent requests are group committed, so one commit and sync covers all of them.
+ * Statistics from downloads are the exception: they are written with the next commit, and while the store is started
+ * a commit is made every second that statistics are waiting.
+ * Startup only opens the file, however many users there are.
+ * Users are read from the store on first use and then kept, so concurrent requests for a user share one instance.
+ * At most hotUserLimit users are kept: once a tenth more than that are loaded, the least recently active idle users are dropped.
+ */
+public class UserDaoMVStoreImpl implements UserDao, Managed {
+	private final Logger LOG = LoggerFactory.getLogger(UserDaoMVStoreImpl.class);
+	private static final String USERS_MAP = "users";
+	private static final String USER_IDS_MAP = "userIds";
+	private static final String USER_CONTENT_MAP = "userContent";
+	private static final String TOTALS_MAP = "totals";
+	private static final String INTENTS_TOTAL = "intents";
+	private static final String PAYLOAD_BYTES_TOTAL = "payloadBytes";
+	private static final int DEFAULT_HOT_USER_LIMIT = 100000;
+	// Long enough that no request can still be holding on to a user when it's dropped
+	private static final Duration MIN_IDLE_BEFORE_EVICTION = Duration.ofMinutes(5);
+	private static final long ACTIVITY_COMMIT_INTERVAL_MILLIS = 1000;
+
+	private final String storeFile;
+	private final String contentFile;
+	private final SnapshotFormat snapshotFormat;
+	private final Integer segmentCount;
+	private final SnapshotFiles snapshotFiles;
+	private final ObjectMapper mapper;
+	private final Map<String,User> loadedUsers = new ConcurrentHashMap<>();
+	private final int hotUserLimit;
+	private final AtomicBoolean evicting = new AtomicBoolean();
+	// Held while changing the maps, and while committing, so a commit never catches an operation half done
+	private final ReentrantLock writeLock = new ReentrantLock();
+	private final GroupCommitter<String> committer;
+	// Users whose statistics changed since they were last written, each written by the next commit
+	private final Map<String,User> activeUsers = new ConcurrentHashMap<>();
+	private final ScheduledExecutorService activityCommitter;
+	private volatile Boolean initialized = false;
+	// Built on the first paged listing, and kept up to date from then on
+	private volatile UserActivityIndex activityIndex;
+
+	private MVStore store;
+	private MVMap<String,byte[]> users;
+	private MVMap<String,String> echoIdsByUserId;
+	// The intents and payload bytes of each user, and their totals over every user
+	private MVMap<String,long[]> contentByEchoId;
+	private MVMap<String,Long> totals;
+
+	public UserDaoMVStoreImpl(MainConfig config, Environment env){
+		storeFile = config.getEchoDebuggerConfig().getMvStoreFile();
+		contentFile = config.getEchoDebuggerConfig().getContentFile();
+		SnapshotFormat format = config.getEchoDebuggerConfig().getSnapshotFormat();
+		snapshotFormat = (format != null) ? format : SnapshotFormat.JSON;
+		mapper = snapshotFormat.createMapper();
+		segmentCount = config.getEchoDebuggerConfig().getSegmentCount();
+		Integer generations = config.getEchoDebuggerConfig().getSnapshotGenerations();
+		snapshotFiles = new SnapshotFiles((generations != null) ? generations : SnapshotFiles.DEFAULT_GENERATIONS, 0);
+		Integer limit = config.getEchoDebuggerConfig().getHotUserLimit();
+		hotUserLimit = (limit != null && limit > 0) ? limit : DEFAULT_HOT_USER_LIMIT;
+
+		Long groupCommitWindow = config.getEchoDebuggerConfig().getGroupCommitWindowMillis();
+		Integer groupCommitMaxBatch = config.getEchoDebuggerConfig().getGroupCommitMaxBatch();
+		committer = new GroupCommitter<>("user-store-commit", batch -> commit(),
+				(groupCommitWindow != null) ? groupCommitWindow : GroupCommitter.DEFAULT_WINDOW_MILLIS,
+				(groupCommitMaxBatch != null) ? groupCommitMaxBatch : GroupCommitter.DEFAULT_MAX_BATCH);
+		activityCommitter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "user-activity-commit");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Opens the store. If it's empty and there is a snapshot from the local implementation, the users are imported from it.
+	 */
+	@Override
+	public void initialize(){
+		try {
+			Path file = Paths.get(storeFile);
+			if(file.toAbsolutePath().getParent() != null){
+				Files.createDirectories(file.toAbsolutePath().getParent());
+			}
+			store = new MVStore.Builder().fileName(storeFile).compress().autoCommitDisabled().open();
+			users = store.openMap(USERS_MAP);
+			echoIdsByUserId = store.openMap(USER_IDS_MAP);
+			contentByEchoId = store.openMap(USER_CONTENT_MAP);
+			totals = store.openMap(TOTALS_MAP);
+
+			if(users.isEmpty() && contentFile != null){
+				importUsers();
+			}
+			else if(!users.isEmpty() && totals.isEmpty()){
+				countStoredContent();
+			}
+			committer.start();
+			LOG.info("Opened "+storeFile+" with "+users.sizeAsLong()+" users");
+			initialized = true;
+		} catch (IOException | RuntimeException e) {
+			LOG.error("Could not initialize users from "+storeFile,e);
+		}
+	}
+
+	@Override
+	public Boolean isInitialized(){
+		return initialized;
+	}
+
+	@Override
+	public User createUser(String echoId){
+		User user;
+		CompletableFuture<Void> committed = null;
+		writeLock.lock();
+		try {
+			// Loaded without evicting, which is left until the lock is released
+			user = loadedUsers.get(echoId);
+			if(user == null){
+				user = load(echoId);
+			}
+			// TODO: Consider an exception when the user exists. We shouldn't be trying to create a user where one exists
+			if(user == null){
+				user = new User(echoId);
+				put(user);
+				loadedUsers.put(echoId, user);
+				updateActivityIndex(user);
+				committed = committer.submit(echoId);
+			}
+		} catch (IOException e) {
+			LOG.error("Could not create user ("+echoId+")",e);
+			return null;
+		} finally {
+			writeLock.unlock();
+		}
+		if(committed != null){
+			awaitCommit(committed, echoId);
+		}
+		evictIfOverLimit();
+		return user;
+	}
+
+	@Override
+	public Boolean saveUser(User user){
+		CompletableFuture<Void> committed;
+		writeLock.lock();
+		try {
+			// Statistics changed from here on mark the user again
+			activeUsers.remove(user.getEchoId());
+			put(user);
+			loadedUsers.put(user.getEchoId(), user);
+			updateActivityIndex(user);
+			committed = committer.submit(user.getEchoId());
+		} catch (IOException e) {
+			LOG.error("Could not save user ("+user.getEchoId()+")",e);
+			return false;
+		} finally {
+			writeLock.unlock();
+		}
+		return awaitCommit(committed, user.getEchoId());
+	}
+
+	/**
+	 * Leaves the user to be written by the next commit, which is at most a second away while the store is started
+	 */
+	@Override
+	public void recordActivity(User user){
+		activeUsers.put(user.getEchoId(), user);
+		updateActivityIndex(user);
+	}
+
+	@Override
+	public User getUserByEchoId(String echoId){
+		if(echoId == null){return null;}
+		User user = loadedUsers.get(echoId);
+		if(user != null){return user;}
+
+		user = load(echoId);
+		if(user != null){
+			evictIfOverLimit();
+		}
+		return user;
+	}
+
+	@Override
+	public User getUserById(String id){
+		UserIdKey key = UserIdKey.parse(id);
+		if(key == null){return null;}
+		String echoId = echoIdsByUserId.get(key.toString());
+		return getUserByEchoId(echoId);
+	}
+
+	@Override
+	public User resolve(String anyId){
+		if(anyId == null){return null;}
+		User user = getUserById(anyId);
+		return (user != null) ? user : getUserByEchoId(anyId);
+	}
+
+	/**
+	 * Reads every user in the store. Users not already in use are read without being kept.
+	 */
+	@Override
+	public List<User> getAllUserData(){
+		List<User> usersList = new ArrayList<>();
+		for(String echoId : users.keySet()){
+			User user = loadedUsers.get(echoId);
+			if(user == null){
+				user = read(echoId);
+			}
+			if(user != null){
+				usersList.add(user);
+			}
+		}
+		return usersList;
+	}
+
+	/**
+	 * The first call reads every user once to build the index. Users not already in use are read without being kept.
+	 */
+	@Override
+	public UserPage getUsersByMostRecentUpload(String cursor, int limit){
+		return activityIndex().page(cursor, limit, echoId -> {
+			User user = loadedUsers.get(echoId);
+			return (user != null) ? user : read(echoId);
+		});
+	}
+
+	/**
+	 * Reads the running totals, including changes not yet committed
+	 */
+	@Override
+	public StoredContent getStoredContent(){
+		return new StoredContent(users.sizeAsLong(), totals.getOrDefault(INTENTS_TOTAL, 0L), totals.getOrDefault(PAYLOAD_BYTES_TOTAL, 0L));
+	}
+
+	@Override
+	public User deleteUser(User user){
+		CompletableFuture<Void> committed;
+		writeLock.lock();
+		try {
+			users.remove(user.getEchoId());
+			if(user.getId() != null){
+				echoIdsByUserId.remove(user.getId().toString());
+			}
+			uncount(user.getEchoId());
+			loadedUsers.remove(user.getEchoId());
+			activeUsers.remove(user.getEchoId(), user);
+			UserActivityIndex index = activityIndex;
+			if(index != null){
+				index.remove(user.getEchoId());
+			}
+			committed = committer.submit(user.getEchoId());
+		} catch (IOException e) {
+			LOG.error("Could not delete user ("+user.getEchoId()+")",e);
+			return user;
+		} finally {
+			writeLock.unlock();
+		}
+		awaitCommit(committed, user.getEchoId());
+		return user;
+	}
+
+	@Override
+	public IntentResponses deleteIntent(User user, String intentName){
+		IntentResponses intentResponses = user.removeIntent(intentName);
+		if(intentResponses != null){
+			saveUser(user);
+		}
+		return intentResponses;
+	}
+
+	/**
+	 * Drops the least recently active users from memory, until no more than hotUserLimit are left. Every change is
+	 * already in the store, or held for the next commit, so nothing is written. Users active in the last few minutes are never dropped.
+	 * @return the number of users dropped
+	 */
+	public int evictIdleUsers(){
+		int excess = loadedUsers.size() - hotUserLimit;
+		if(excess <= 0){return 0;}
+
+		// Keeps the least recently active idle users, with the most recently active of them at the head
+		Instant idleCutoff = Instant.now().minus(MIN_IDLE_BEFORE_EVICTION);
+		PriorityQueue<User> candidates = new PriorityQueue<>(excess + 1, Comparator.comparing(User::getLastActiveTime).reversed());
+		for(User user : loadedUsers.values()){
+			if(user.getLastActiveTime().isAfter(idleCutoff)){continue;}
+			candidates.add(user);
+			if(candidates.size() > excess){
+				candidates.poll();
+			}
+		}
+
+		int evicted = 0;
+		for(User user : candidates){
+			// Only if it wasn't replaced in the meantime
+			if(loadedUsers.remove(user.getEchoId(), user)){
+				evicted++;
+			}
+		}
+		LOG.debug("Dropped "+evicted+" idle users from memory, "+loadedUsers.size()+" users remain loaded");
+		return evicted;
+	}
+
+	public int getLoadedUserCount(){
+		return loadedUsers.size();
+	}
+
+	/**
+	 * Starts committing recorded statistics every second
+	 */
+	@Override
+	public void start(){
+		activityCommitter.scheduleWithFixedDelay(this::commitActivity, ACTIVITY_COMMIT_INTERVAL_MILLIS, ACTIVITY_COMMIT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Commits any statistics still waiting, then closes the store
+	 */
+	@Override
+	public void stop() throws InterruptedException{
+		activityCommitter.shutdown();
+		activityCommitter.awaitTermination(5, TimeUnit.SECONDS);
+		committer.stop();
+		if(store != null){
+			try {
+				commit();
+			} catch (IOException e) {
+				LOG.error("Could not commit the last statistics to "+storeFile,e);
+			}
+			store.close();
+		}
+	}
+
+	// Local helper functions
+	/**
+	 * Reads the user from the store and keeps it, without evicting anyone
+	 */
+	private User load(String echoId){
+		User user = read(echoId);
+		if(user == null){return null;}
+		// Another request may have loaded it at the same time, in which case use theirs
+		User loaded = loadedUsers.putIfAbsent(echoId, user);
+		return (loaded != null) ? loaded : user;
+	}
+
+	private void commitActivity(){
+		if(activeUsers.isEmpty()){return;}
+		try {
+			// Goes through the group committer like any other change, so it can share a commit with them
+			committer.submit(null);
+		} catch (IOException e) {
+			LOG.warn("Could not commit the statistics of "+activeUsers.size()+" users",e);
+		}
+	}
+
+	/**
+	 * Call under the write lock
+	 */
+	private void put(User user) throws IOException{
+		users.put(user.getEchoId(), mapper.writeValueAsBytes(user));
+		if(user.getId() != null){
+			echoIdsByUserId.put(user.getId().toString(), user.getEchoId());
+		}
+		count(user);
+	}
+
+	/**
+	 * Replaces what was counted for the user with its current intents. Call under the write lock.
+	 */
+	private void count(User user){
+		StoredContent content = StoredContent.of(user);
+		long[] previous = contentByEchoId.put(user.getEchoId(), new long[]{content.getIntents(), content.getPayloadBytes()});
+		if(previous != null){
+			addToTotals(content.getIntents() - previous[0], content.getPayloadBytes() - previous[1]);
+		}
+		else{
+			addToTotals(content.getIntents(), content.getPayloadBytes());
+		}
+	}
+
+	private void uncount(String echoId){
+		long[] previous = contentByEchoId.remove(echoId);
+		if(previous != null){
+			addToTotals(-previous[0], -previous[1]);
+		}
+	}
+
+	private void addToTotals(long intents, long payloadBytes){
+		totals.put(INTENTS_TOTAL, totals.getOrDefault(INTENTS_TOTAL, 0L) + intents);
+		totals.put(PAYLOAD_BYTES_TOTAL, totals.getOrDefault(PAYLOAD_BYTES_TOTAL, 0L) + payloadBytes);
+	}
+
+	/**
+	 * Counts every user once, for a store written before the totals were kept
+	 */
+	private void countStoredContent() throws IOException{
+		LOG.info("Counting the content of "+users.sizeAsLong()+" users in "+storeFile);
+		writeLock.lock();
+		try {
+			for(String echoId : users.keySet()){
+				User user = read(echoId);
+				if(user != null){
+					count(user);
+				}
+			}
+			commit();
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Evicting scans every loaded user, so it waits until there are a tenth more than the limit, and runs one at a time
+	 */
+	private void evictIfOverLimit(){
+		if(loadedUsers.size() <= hotUserLimit + hotUserLimit / 10){return;}
+		if(!evicting.compareAndSet(false, true)){return;}
+		try {
+			evictIdleUsers();
+		} finally {
+			evicting.set(false);
+		}
+	}
+
+	private void updateActivityIndex(User user){
+		UserActivityIndex index = activityIndex;
+		if(index != null){
+			index.update(user);
+		}
+	}
+
+	private synchronized UserActivityIndex activityIndex(){
+		if(activityIndex != null){return activityIndex;}
+		// Published before it's filled, so changes made meanwhile go into it too. Those users are then skipped below.
+		UserActivityIndex index = new UserActivityIndex();
+		activityIndex = index;
+		for(String echoId : users.keySet()){
+			User user = loadedUsers.get(echoId);
+			if(user == null){
+				user = read(echoId);
+			}
+			if(user != null){
+				index.add(user);
+			}
+		}
+		LOG.info("Indexed "+users.sizeAsLong()+" users by their most recent upload");
+		return index;
+	}
+
+	private User read(String echoId){
+		byte[] record = users.get(echoId);
+		if(record == null){return null;}
+		try {
+			return mapper.readValue(record, User.class);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not read user ("+echoId+") from "+storeFile, e);
+		}
+	}
+
+	/**
+	 * Commits every change made so far. A failed commit leaves the changes in place, for the next commit to retry.
+	 */
+	private void commit() throws IOException{
+		writeLock.lock();
+		try {
+			writeActiveUsers();
+			store.commit();
+		} catch (RuntimeException e) {
+			throw new IOException("Could not commit to "+storeFile, e);
+		} finally {
+			writeLock.unlock();
+		}
+		// The sync is the slow part, and it doesn't need the lock
+		store.sync();
+	}
+
+	/**
+	 * Call under the write lock. A deleted user is skipped, as is one replaced by a new account under the same echoId.
+	 */
+	private void writeActiveUsers() throws IOException{
+		for(User user : activeUsers.values()){
+			// Activity recorded from here on marks the user again
+			if(!activeUsers.remove(user.getEchoId(), user)){continue;}
+			boolean stored = (user.getId() != null)
+					? user.getEchoId().equals(echoIdsByUserId.get(user.getId().toString()))
+					: users.containsKey(user.getEchoId());
+			if(stored){
+				put(user);
+			}
+		}
+	}
+
+	private Boolean awaitCommit(CompletableFuture<Void> committed, String echoId){
+		try {
+			committer.await(committed);
+			return true;
+		} catch (IOException e) {
+			LOG.error("Could not commit the change to user ("+echoId+")",e);
+			return false;
+		}
+	}
+
+	/**
+	 * Reads the snapshot the same way the local implementation does: from its segments if there are any, else the
+	 * single content file, falling back to older generations of either if the newest can't be read
+	 */
+	private void importUsers() throws IOException{
+		SegmentedSnapshot segments = (segmentCount != null && segmentCount > 0)
+				? new SegmentedSnapshot(contentFile, segmentCount, snapshotFormat, snapshotFiles) : null;
+		Path file = Paths.get(contentFile);
+		if((segments != null) ? !segments.exists() : !snapshotFiles.exists(file)){return;}
+
+		LOG.info("The store is empty, importing users from "+contentFile);
+		// Segments are read in parallel, so puts take turns
+		Object putLock = new Object();
+		Consumer<User> importer = user -> {
+			synchronized(putLock){
+				try {
+					put(user);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+		};
+		Consumer<String> discard = echoId -> {
+			synchronized(putLock){
+				User user = read(echoId);
+				users.remove(echoId);
+				if(user != null && user.getId() != null){
+					echoIdsByUserId.remove(user.getId().toString());
+				}
+				uncount(echoId);
+			}
+		};
+
+		writeLock.lock();
+		try {
+			if(segments != null){
+				segments.read(importer, discard);
+			}
+			else{
+				UserFileReader reader = new UserFileReader(mapper);
+				List<String> imported = new ArrayList<>();
+				snapshotFiles.loadNewest(file, generation -> reader.read(generation, user -> {
+					imported.add(user.getEchoId());
+					importer.accept(user);
+				}), () -> {
+					imported.forEach(discard);
+					imported.clear();
+				});
+			}
+			commit();
+		} catch (UncheckedIOException e) {
+			store.rollback();
+			throw e.getCause();
+		} catch (IOException e) {
+			store.rollback();
+			throw e;
+		} finally {
+			writeLock.unlock();
+		}
+		LOG.info("Imported "+users.sizeAsLong()+" users");
+	}
+}
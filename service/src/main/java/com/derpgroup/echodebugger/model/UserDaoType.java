@@ -0,0 +1,11 @@
+package com.derpgroup.echodebugger.model;
+
+/**
+ * The available {@link UserDao} implementations
+ */
+public enum UserDaoType {
+	// Every user in memory, saved to snapshot files (and optionally a journal) in the background
+	LOCAL,
+	// Users in an embedded MVStore file, with every change synced before the request returns
+	MVSTORE
+}
@@ -0,0 +1,50 @@
+package com.derpgroup.echodebugger.model;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+/**
+ * Streams users out of a file holding a JSON array of users, one at a time, so the whole file
+ * never has to be held in memory alongside the users built from it.
+ */
+public class UserFileReader {
+
+	private final ObjectMapper mapper;
+	private final ObjectReader userReader;
+
+	public UserFileReader(ObjectMapper mapper){
+		this.mapper = mapper;
+		this.userReader = mapper.readerFor(User.class);
+	}
+
+	/**
+	 * Hands each user to the consumer as soon as it is decoded. A file with no users holds an empty array,
+	 * so an empty or cut off file is an error rather than an empty snapshot.
+	 */
+	public void read(Path file, Consumer<User> consumer) throws IOException{
+		try(JsonParser parser = mapper.getFactory().createParser(file.toFile())){
+			JsonToken token = parser.nextToken();
+			if(token == null){
+				throw new EOFException("No users found in the empty file "+file);
+			}
+			if(token != JsonToken.START_ARRAY){
+				throw new JsonParseException(parser, "Expected an array of users in "+file);
+			}
+
+			while((token = parser.nextToken()) == JsonToken.START_OBJECT){
+				consumer.accept(userReader.readValue(parser));
+			}
+			if(token != JsonToken.END_ARRAY){
+				throw new JsonParseException(parser, "Expected a user object in "+file);
+			}
+		}
+	}
+}
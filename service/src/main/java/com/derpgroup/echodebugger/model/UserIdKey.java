@@ -0,0 +1,69 @@
+package com.derpgroup.echodebugger.model;
+
+import java.util.UUID;
+
+/**
+ * Index key for a user's UUID, held as two longs rather than its 36 character String form
+ */
+public final class UserIdKey {
+
+	private final long mostSignificantBits;
+	private final long leastSignificantBits;
+
+	public UserIdKey(long mostSignificantBits, long leastSignificantBits){
+		this.mostSignificantBits = mostSignificantBits;
+		this.leastSignificantBits = leastSignificantBits;
+	}
+
+	public static UserIdKey of(UUID id){
+		return new UserIdKey(id.getMostSignificantBits(), id.getLeastSignificantBits());
+	}
+
+	/**
+	 * Parses a UUID in its canonical 8-4-4-4-12 form. Returns null for anything else (such as an echoId), without throwing.
+	 */
+	public static UserIdKey parse(String id){
+		if(id == null || id.length() != 36){return null;}
+		if(id.charAt(8) != '-' || id.charAt(13) != '-' || id.charAt(18) != '-' || id.charAt(23) != '-'){return null;}
+
+		long most = 0;
+		long least = 0;
+		int digits = 0;
+		for(int i = 0; i < 36; i++){
+			if(i == 8 || i == 13 || i == 18 || i == 23){continue;}
+			int digit = Character.digit(id.charAt(i), 16);
+			if(digit < 0){return null;}
+			if(digits < 16){
+				most = (most << 4) | digit;
+			}
+			else{
+				least = (least << 4) | digit;
+			}
+			digits++;
+		}
+		return new UserIdKey(most, least);
+	}
+
+	public UUID toUUID(){
+		return new UUID(mostSignificantBits, leastSignificantBits);
+	}
+
+	@Override
+	public boolean equals(Object other){
+		if(this == other){return true;}
+		if(!(other instanceof UserIdKey)){return false;}
+		UserIdKey key = (UserIdKey) other;
+		return mostSignificantBits == key.mostSignificantBits && leastSignificantBits == key.leastSignificantBits;
+	}
+
+	@Override
+	public int hashCode(){
+		long hash = mostSignificantBits ^ leastSignificantBits;
+		return (int) (hash >> 32) ^ (int) hash;
+	}
+
+	@Override
+	public String toString(){
+		return toUUID().toString();
+	}
+}
@@ -0,0 +1,319 @@
+package com.derpgroup.echodebugger.model;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Append-only log of user mutations. Each line is a single JSON encoded {@link Record}.
+ * The log is replayed on top of the last snapshot at startup, and is rotated away whenever a new snapshot is written.
+ *
+ * An append only returns once its record has been fsynced. Appends from concurrent requests are group committed,
+ * so one fsync covers every record that arrived in the same window. Statistics are appended without waiting.
+ */
+public class UserJournal {
+	private static final Logger LOG = LoggerFactory.getLogger(UserJournal.class);
+	private static final String ROTATED_SUFFIX = ".compacting";
+
+	public enum Operation {
+		SAVE_USER,
+		DELETE_USER,
+		DELETE_INTENT,
+		UPDATE_STATS
+	}
+
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	public static class Record {
+		private Operation op;
+		private String echoId;
+		private String intentName;
+		private User user;
+		private Stats stats;
+
+		public Record(){}
+		public Record(Operation op, String echoId, String intentName, User user){
+			this.op = op;
+			this.echoId = echoId;
+			this.intentName = intentName;
+			this.user = user;
+		}
+
+		public static Record saveUser(User user){return new Record(Operation.SAVE_USER, user.getEchoId(), null, user);}
+		public static Record deleteUser(User user){return new Record(Operation.DELETE_USER, user.getEchoId(), null, null);}
+		public static Record deleteIntent(User user, String intentName){return new Record(Operation.DELETE_INTENT, user.getEchoId(), intentName, null);}
+		public static Record updateStats(User user){
+			Record record = new Record(Operation.UPDATE_STATS, user.getEchoId(), null, null);
+			record.setStats(Stats.of(user));
+			return record;
+		}
+
+		public Operation getOp() {return op;}
+		public void setOp(Operation op) {this.op = op;}
+		public String getEchoId() {return echoId;}
+		public void setEchoId(String echoId) {this.echoId = echoId;}
+		public String getIntentName() {return intentName;}
+		public void setIntentName(String intentName) {this.intentName = intentName;}
+		public User getUser() {return user;}
+		public void setUser(User user) {this.user = user;}
+		public Stats getStats() {return stats;}
+		public void setStats(Stats stats) {this.stats = stats;}
+	}
+
+	/**
+	 * A user's counters and timestamps, journaled in place of the whole user when nothing else changed.
+	 * They are absolute values, so replaying the latest record for a user is enough.
+	 */
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	public static class Stats {
+		private UUID id;
+		private long numContentUploads;
+		private long numContentDownloads;
+		private long numCharactersUploaded;
+		private long numCharactersDownloaded;
+		private long numUploadsTooLarge;
+		private Instant lastUploadTime;
+		private Instant lastWebDownloadTime;
+		private Instant lastEchoDownloadTime;
+
+		public static Stats of(User user){
+			Stats stats = new Stats();
+			stats.id = user.getId();
+			stats.numContentUploads = user.getNumContentUploads();
+			stats.numContentDownloads = user.getNumContentDownloads();
+			stats.numCharactersUploaded = user.getNumCharactersUploaded();
+			stats.numCharactersDownloaded = user.getNumCharactersDownloaded();
+			stats.numUploadsTooLarge = user.getNumUploadsTooLarge();
+			stats.lastUploadTime = user.getLastUploadTime();
+			stats.lastWebDownloadTime = user.getLastWebDownloadTime();
+			stats.lastEchoDownloadTime = user.getLastEchoDownloadTime();
+			return stats;
+		}
+
+		/**
+		 * Only used while replaying, so nothing else is changing the user
+		 */
+		public void applyTo(User user){
+			user.setNumContentUploads(numContentUploads);
+			user.setNumContentDownloads(numContentDownloads);
+			user.setNumCharactersUploaded(numCharactersUploaded);
+			user.setNumCharactersDownloaded(numCharactersDownloaded);
+			user.setNumUploadsTooLarge(numUploadsTooLarge);
+			user.setLastUploadTime(lastUploadTime);
+			user.setLastWebDownloadTime(lastWebDownloadTime);
+			user.setLastEchoDownloadTime(lastEchoDownloadTime);
+		}
+
+		public UUID getId() {return id;}
+		public void setId(UUID id) {this.id = id;}
+		public long getNumContentUploads() {return numContentUploads;}
+		public void setNumContentUploads(long numContentUploads) {this.numContentUploads = numContentUploads;}
+		public long getNumContentDownloads() {return numContentDownloads;}
+		public void setNumContentDownloads(long numContentDownloads) {this.numContentDownloads = numContentDownloads;}
+		public long getNumCharactersUploaded() {return numCharactersUploaded;}
+		public void setNumCharactersUploaded(long numCharactersUploaded) {this.numCharactersUploaded = numCharactersUploaded;}
+		public long getNumCharactersDownloaded() {return numCharactersDownloaded;}
+		public void setNumCharactersDownloaded(long numCharactersDownloaded) {this.numCharactersDownloaded = numCharactersDownloaded;}
+		public long getNumUploadsTooLarge() {return numUploadsTooLarge;}
+		public void setNumUploadsTooLarge(long numUploadsTooLarge) {this.numUploadsTooLarge = numUploadsTooLarge;}
+		public Instant getLastUploadTime() {return lastUploadTime;}
+		public void setLastUploadTime(Instant lastUploadTime) {this.lastUploadTime = lastUploadTime;}
+		public Instant getLastWebDownloadTime() {return lastWebDownloadTime;}
+		public void setLastWebDownloadTime(Instant lastWebDownloadTime) {this.lastWebDownloadTime = lastWebDownloadTime;}
+		public Instant getLastEchoDownloadTime() {return lastEchoDownloadTime;}
+		public void setLastEchoDownloadTime(Instant lastEchoDownloadTime) {this.lastEchoDownloadTime = lastEchoDownloadTime;}
+	}
+
+	private final Path journalFile;
+	private final Path rotatedFile;
+	private final ObjectMapper mapper;
+	private final GroupCommitter<byte[]> committer;
+	// Keeps records in the order they were serialized, so a replay ends with the latest version of a user
+	private final Object appendLock = new Object();
+	private FileChannel out;
+	private long size;
+
+	/**
+	 * @param groupCommitWindowMillis how long to wait for more records before an fsync
+	 * @param groupCommitMaxBatch the most records covered by one fsync
+	 */
+	public UserJournal(String fileName, ObjectMapper mapper, long groupCommitWindowMillis, int groupCommitMaxBatch){
+		this.journalFile = Paths.get(fileName);
+		this.rotatedFile = Paths.get(fileName + ROTATED_SUFFIX);
+		this.mapper = mapper;
+		this.committer = new GroupCommitter<>("user-journal", this::writeLines, groupCommitWindowMillis, groupCommitMaxBatch);
+	}
+
+	/**
+	 * Starts writing appended records. Call once the journal has been replayed.
+	 */
+	public void start(){
+		committer.start();
+	}
+
+	/**
+	 * Replays every record still on disk, oldest first. A torn record (from a crash mid-append) is logged and skipped.
+	 */
+	public void replay(Consumer<Record> consumer) throws IOException{
+		replayFile(rotatedFile, consumer);
+		replayFile(journalFile, consumer);
+	}
+
+	/**
+	 * Appends the record, and waits until it's durable
+	 */
+	public void append(Record record) throws IOException{
+		CompletableFuture<Void> written;
+		synchronized(appendLock){
+			written = committer.submit(mapper.writeValueAsBytes(record));
+		}
+		committer.await(written);
+	}
+
+	/**
+	 * Appends the record without waiting for it to be durable. The record is built as it's queued,
+	 * so it holds the latest values and stays in order with every other append.
+	 * @return completes once the record has been fsynced
+	 */
+	public CompletableFuture<Void> appendLater(Supplier<Record> record) throws IOException{
+		synchronized(appendLock){
+			return committer.submit(mapper.writeValueAsBytes(record.get()));
+		}
+	}
+
+	/**
+	 * Moves the live journal aside so a snapshot can be written. Records appended from here on go to a fresh journal.
+	 * @return false if a previous rotation was never completed, in which case nothing is moved
+	 */
+	public synchronized boolean rotate() throws IOException{
+		if(Files.exists(rotatedFile)){
+			return false;
+		}
+		closeStream();
+		if(Files.exists(journalFile)){
+			Files.move(journalFile, rotatedFile, StandardCopyOption.ATOMIC_MOVE);
+		}
+		size = 0;
+		return true;
+	}
+
+	/**
+	 * True if a rotated journal is still waiting for its snapshot, e.g. because writing that snapshot failed
+	 */
+	public synchronized boolean isRotationPending(){
+		return Files.exists(rotatedFile);
+	}
+
+	/**
+	 * Called once a snapshot containing everything in the rotated journal has been safely written
+	 */
+	public synchronized void completeRotation() throws IOException{
+		Files.deleteIfExists(rotatedFile);
+	}
+
+	/**
+	 * Discards the whole journal. Only safe when a snapshot of the current state has just been written.
+	 */
+	public synchronized void reset() throws IOException{
+		closeStream();
+		Files.deleteIfExists(rotatedFile);
+		Files.deleteIfExists(journalFile);
+		size = 0;
+	}
+
+	public synchronized long size(){
+		return size;
+	}
+
+	/**
+	 * Waits for queued records to be written, then closes the journal
+	 */
+	public void close() throws IOException{
+		try {
+			committer.stop();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		synchronized(this){
+			closeStream();
+		}
+	}
+
+	// Local helper functions
+	private void replayFile(Path file, Consumer<Record> consumer) throws IOException{
+		if(!Files.exists(file)){return;}
+
+		int lineNumber = 0;
+		try(BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)){
+			String line;
+			while((line = reader.readLine()) != null){
+				lineNumber++;
+				if(line.isEmpty()){continue;}
+				Record record;
+				try {
+					record = mapper.readValue(line, Record.class);
+				} catch (IOException e) {
+					LOG.warn("Skipping unreadable record on line "+lineNumber+" of "+file, e);
+					continue;
+				}
+				consumer.accept(record);
+			}
+		}
+		LOG.info("Replayed "+lineNumber+" journal records from "+file);
+	}
+
+	/**
+	 * Writes a batch of records with a single write and fsync. A crash can only ever tear the last line.
+	 */
+	private synchronized void writeLines(List<byte[]> lines) throws IOException{
+		int length = 0;
+		for(byte[] line : lines){
+			length += line.length + 1;
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		for(byte[] line : lines){
+			buffer.put(line).put((byte) '\n');
+		}
+		buffer.flip();
+
+		FileChannel channel = getChannel();
+		while(buffer.hasRemaining()){
+			channel.write(buffer);
+		}
+		channel.force(false);
+		size += length;
+	}
+
+	private FileChannel getChannel() throws IOException{
+		if(out == null){
+			out = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE);
+			size = out.size();
+		}
+		return out;
+	}
+
+	private void closeStream() throws IOException{
+		if(out != null){
+			out.close();
+			out = null;
+		}
+	}
+}
@@ -0,0 +1,23 @@
+package com.derpgroup.echodebugger.model;
+
+import java.util.List;
+
+/**
+ * One page of a user listing, and where the next page starts
+ */
+public class UserPage {
+
+	private final List<User> users;
+	private final String nextCursor;
+
+	public UserPage(List<User> users, String nextCursor){
+		this.users = users;
+		this.nextCursor = nextCursor;
+	}
+
+	public List<User> getUsers() {return users;}
+	/**
+	 * Null on the last page
+	 */
+	public String getNextCursor() {return nextCursor;}
+}
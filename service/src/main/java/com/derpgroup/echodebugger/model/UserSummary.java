@@ -0,0 +1,61 @@
+package com.derpgroup.echodebugger.model;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+
+/**
+ * A user's account details and the names of its intents, without the stored responses
+ */
+public class UserSummary {
+
+	private final UUID id;
+	private final String echoId;
+	@JsonFormat(shape = JsonFormat.Shape.STRING, pattern="yyyy-MM-dd'T'HH:mm:ss.SSSXXX", timezone = "PST")
+	private final Instant creationTime;
+	@JsonFormat(shape = JsonFormat.Shape.STRING, pattern="yyyy-MM-dd'T'HH:mm:ss.SSSXXX", timezone = "PST")
+	private final Instant lastUploadTime;
+	@JsonFormat(shape = JsonFormat.Shape.STRING, pattern="yyyy-MM-dd'T'HH:mm:ss.SSSXXX", timezone = "PST")
+	private final Instant lastWebDownloadTime;
+	@JsonFormat(shape = JsonFormat.Shape.STRING, pattern="yyyy-MM-dd'T'HH:mm:ss.SSSXXX", timezone = "PST")
+	private final Instant lastEchoDownloadTime;
+	private final long numContentUploads;
+	private final long numContentDownloads;
+	private final long numCharactersUploaded;
+	private final long numCharactersDownloaded;
+	private final long numUploadsTooLarge;
+	private final List<String> intentNames;
+
+	public UserSummary(User user){
+		id = user.getId();
+		echoId = user.getEchoId();
+		creationTime = user.getCreationTime();
+		lastUploadTime = user.getLastUploadTime();
+		lastWebDownloadTime = user.getLastWebDownloadTime();
+		lastEchoDownloadTime = user.getLastEchoDownloadTime();
+		numContentUploads = user.getNumContentUploads();
+		numContentDownloads = user.getNumContentDownloads();
+		numCharactersUploaded = user.getNumCharactersUploaded();
+		numCharactersDownloaded = user.getNumCharactersDownloaded();
+		numUploadsTooLarge = user.getNumUploadsTooLarge();
+		intentNames = new ArrayList<>(user.getIntents().keySet());
+		Collections.sort(intentNames);
+	}
+
+	public UUID getId() {return id;}
+	public String getEchoId() {return echoId;}
+	public Instant getCreationTime() {return creationTime;}
+	public Instant getLastUploadTime() {return lastUploadTime;}
+	public Instant getLastWebDownloadTime() {return lastWebDownloadTime;}
+	public Instant getLastEchoDownloadTime() {return lastEchoDownloadTime;}
+	public long getNumContentUploads() {return numContentUploads;}
+	public long getNumContentDownloads() {return numContentDownloads;}
+	public long getNumCharactersUploaded() {return numCharactersUploaded;}
+	public long getNumCharactersDownloaded() {return numCharactersDownloaded;}
+	public long getNumUploadsTooLarge() {return numUploadsTooLarge;}
+	public List<String> getIntentNames() {return intentNames;}
+}
@@ -30,7 +30,19 @@ public class ResponderExceptionMapper implements ExceptionMapper<Exception> {
 			case RESPONSE_TOO_LONG:
 			case UNRECOGNIZED_ID:
 			case NO_SAVED_RESPONSE:
+			case INVALID_RESPONSE:
+			case INVALID_CURSOR:
 				status = Status.BAD_REQUEST;
+				break;
+			case PRECONDITION_FAILED:
+				status = Status.PRECONDITION_FAILED;
+				break;
+			case UPLOAD_TOO_LARGE:
+				status = Status.REQUEST_ENTITY_TOO_LARGE;
+				break;
+			case NOT_SAVED:
+				status = Status.SERVICE_UNAVAILABLE;
+				break;
 			default:
 			}
 		}
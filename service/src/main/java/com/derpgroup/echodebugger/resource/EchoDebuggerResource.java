@@ -22,25 +22,41 @@ package com.derpgroup.echodebugger.resource;
 
 import io.dropwizard.setup.Environment;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.UriInfo;
 
 import org.apache.commons.collections.MapUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -52,17 +68,33 @@ import com.amazon.speech.speechlet.IntentRequest;
 import com.amazon.speech.speechlet.LaunchRequest;
 import com.amazon.speech.speechlet.SessionEndedRequest;
 import com.amazon.speech.speechlet.SpeechletException;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.codahale.metrics.annotation.ExceptionMetered;
+import com.codahale.metrics.annotation.Timed;
 import com.derpgroup.echodebugger.configuration.MainConfig;
 import com.derpgroup.echodebugger.exceptions.ExceptionType;
 import com.derpgroup.echodebugger.exceptions.ResponderException;
 import com.derpgroup.echodebugger.logger.EchoDebuggerLogger;
 import com.derpgroup.echodebugger.model.IntentResponses;
 import com.derpgroup.echodebugger.model.ResponseKey;
+import com.derpgroup.echodebugger.model.ResponseTemplate;
+import com.derpgroup.echodebugger.model.SerializedContent;
+import com.derpgroup.echodebugger.model.StoredContent;
 import com.derpgroup.echodebugger.model.User;
 import com.derpgroup.echodebugger.model.UserDao;
+import com.derpgroup.echodebugger.model.UserPage;
+import com.derpgroup.echodebugger.model.UserSummary;
 import com.derpgroup.echodebugger.util.AlexaResponseUtil;
 import com.derpgroup.echodebugger.util.ResponderUtils;
-import com.derpgroup.echodebugger.util.UserSorter;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 
 /**
@@ -77,23 +109,67 @@ import com.derpgroup.echodebugger.util.UserSorter;
 public class EchoDebuggerResource {
 	final static Logger LOG = LoggerFactory.getLogger(EchoDebuggerResource.class);
 	final static Set<String> RESERVED_PARAM_NAMES = new HashSet<>(Arrays.asList("intent","append","state"));
+	// Intents that get their own echo request timer. Users name their own intents, so the rest share one timer.
+	final static Set<String> TIMED_INTENTS = new HashSet<>(Arrays.asList("AMAZON.HelpIntent","AMAZON.StopIntent","AMAZON.CancelIntent",
+			"WHATISMYID","GETRESPONSE","START_OF_CONVERSATION","END_OF_CONVERSATION","UNKNOWN_INTENT"));
+	final static String CUSTOM_INTENT = "custom";
+	final static String STATE_ATTRIBUTE = "state";
+	// Only query parameters named slot.{slotName} become slot conditions, so other parameters never create a variant
+	final static String SLOT_PARAM_PREFIX = "slot.";
+	final static Pattern SLOT_NAME = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+	final static int MAX_SLOT_CONDITIONS = 8;
+	final static String NDJSON = "application/x-ndjson";
+	final static String SUMMARY_FIELDS = "summary";
+	final static int DEFAULT_PAGE_SIZE = 100;
+	final static int MAX_PAGE_SIZE = 1000;
+	final static int DEFAULT_MAX_UPLOAD_ENTRIES = 100;
+	final static ObjectMapper mapper = new ObjectMapper();
+	final static TypeReference<Map<String, Object>> UPLOAD_ENTRY_TYPE = new TypeReference<Map<String, Object>>(){};
 
 	private UserDao userDao;
 	private String password;
 	private Integer maxAllowedResponseLength;
+	private int maxUploadEntries;
 	private Boolean debugMode;
 	private String baseUrl;
 
+	private final Map<String, Timer> echoRequestTimers = new HashMap<>();
+	private final Histogram uploadSizes;
+	private final Histogram responseSizes;
+	private final Counter uploadsTooLarge;
+	private final Counter renderedTooLarge;
+	private final Counter unknownIds;
+
 	public EchoDebuggerResource(MainConfig config, Environment env) {
 		password = config.getEchoDebuggerConfig().getPassword();
 		maxAllowedResponseLength = config.getEchoDebuggerConfig().getMaxAllowedResponseLength();
+		Integer maxEntries = config.getEchoDebuggerConfig().getMaxUploadEntries();
+		maxUploadEntries = (maxEntries != null) ? maxEntries : DEFAULT_MAX_UPLOAD_ENTRIES;
 		debugMode = config.getEchoDebuggerConfig().getDebugMode();
 		baseUrl = config.getEchoDebuggerConfig().getBaseUrl();
+
+		// Endpoint timers come from the annotations below. Without an environment (e.g. in benchmarks) nothing is reported.
+		MetricRegistry metrics = (env != null) ? env.metrics() : new MetricRegistry();
+		for(String intent : TIMED_INTENTS){
+			echoRequestTimers.put(intent, metrics.timer(MetricRegistry.name(EchoDebuggerResource.class, "echoRequests", intent)));
+		}
+		echoRequestTimers.put(CUSTOM_INTENT, metrics.timer(MetricRegistry.name(EchoDebuggerResource.class, "echoRequests", CUSTOM_INTENT)));
+		uploadSizes = metrics.histogram(MetricRegistry.name(EchoDebuggerResource.class, "uploadSize"));
+		responseSizes = metrics.histogram(MetricRegistry.name(EchoDebuggerResource.class, "responseSize"));
+		uploadsTooLarge = metrics.counter(MetricRegistry.name(EchoDebuggerResource.class, "uploadsTooLarge"));
+		renderedTooLarge = metrics.counter(MetricRegistry.name(EchoDebuggerResource.class, "renderedTooLarge"));
+		unknownIds = metrics.counter(MetricRegistry.name(EchoDebuggerResource.class, "unknownIds"));
+
+		metrics.register(MetricRegistry.name(EchoDebuggerResource.class, "users"), (Gauge<Long>) () -> storedContent().getUsers());
+		metrics.register(MetricRegistry.name(EchoDebuggerResource.class, "storedIntents"), (Gauge<Long>) () -> storedContent().getIntents());
+		metrics.register(MetricRegistry.name(EchoDebuggerResource.class, "payloadBytes"), (Gauge<Long>) () -> storedContent().getPayloadBytes());
 	}
 
 	// Deprecate this, we want to move users away from it
 	@Path("/user/{userId}")
 	@POST
+	@Timed(name="saveResponse_legacy")
+	@ExceptionMetered(name="saveResponse_legacy.exceptions")
 	public Map<String, Object> saveResponseForUserId_old(
 			Map<String, Object> body,
 			@PathParam("userId") String userId
@@ -113,6 +189,8 @@ public class EchoDebuggerResource {
 	 */
 	@Path("/users/{userId}")
 	@POST
+	@Timed(name="saveDefaultResponse")
+	@ExceptionMetered(name="saveDefaultResponse.exceptions")
 	public Map<String, Object> saveResponseForUserId_default(
 			Map<String, Object> body,
 			@PathParam("userId") String userId
@@ -121,19 +199,59 @@ public class EchoDebuggerResource {
 	}
 
 	/**
-	 * This is the primary endpoint used for saving responses
+	 * This is the primary endpoint used for saving responses.
+	 * slot.{slotName} query parameters make the response a variant that only plays for those slot values, e.g. ?slot.city=Seattle,
+	 * or ?slot.city=* for any value. The "state" parameter makes it play only when the session attribute "state" matches.
+	 * Other query parameters are ignored.
+	 * With an If-Match header the upload is only saved if the intent still has that ETag, otherwise it fails with 412.
 	 * @param body
 	 * @param userId
 	 * @param intentName
-	 * @return
+	 * @param uriInfo
+	 * @param ifMatch
+	 * @return the response path, with the intent's new ETag
 	 */
 	@Path("/users/{userId}/intents/{intentName}")
 	@POST
-	public Map<String, Object> saveResponseForUserId(
+	@Timed(name="saveResponse")
+	@ExceptionMetered(name="saveResponse.exceptions")
+	public Response saveResponseForUserId(
 			Map<String, Object> body,
 			@PathParam("userId") String userId,
-			@PathParam("intentName") String intentName){
+			@PathParam("intentName") String intentName,
+			@Context UriInfo uriInfo,
+			@HeaderParam(HttpHeaders.IF_MATCH) String ifMatch){
+
+		MultivaluedMap<String, String> params = uriInfo.getQueryParameters();
+		Map<String, String> variables = new HashMap<>();
+		for(Entry<String, List<String>> param : params.entrySet()){
+			if(param.getKey().startsWith(SLOT_PARAM_PREFIX) && !param.getValue().isEmpty()){
+				variables.put(param.getKey().substring(SLOT_PARAM_PREFIX.length()), param.getValue().get(0));
+			}
+		}
+		IntentResponses stored = saveResponse(body, userId, new ResponseKey(intentName, variables, params.getFirst("state")),
+				current -> matchesIfMatch(ifMatch, current));
+		return Response.ok(responsePath(userId, intentName)).tag(new EntityTag(stored.getEtag())).build();
+	}
 
+	/**
+	 * Saves the default response for an intent
+	 */
+	public Map<String, Object> saveResponseForUserId(Map<String, Object> body, String userId, String intentName){
+		return saveResponseForUserId(body, userId, new ResponseKey(intentName));
+	}
+
+	public Map<String, Object> saveResponseForUserId(Map<String, Object> body, String userId, ResponseKey responseKey){
+		saveResponse(body, userId, responseKey, current -> true);
+		return responsePath(userId, responseKey.getIntentName());
+	}
+
+	/**
+	 * Saves an upload if the intent's current responses pass the precondition
+	 * @return the intent's responses, including the upload
+	 */
+	private IntentResponses saveResponse(Map<String, Object> body, String userId, ResponseKey responseKey, Predicate<IntentResponses> precondition){
+		String intentName = responseKey.getIntentName();
 		if(StringUtils.isEmpty(userId)){
 			throw new ResponderException("A userId is required for this endpoint.", ExceptionType.UNRECOGNIZED_ID);
 		}
@@ -141,129 +259,240 @@ public class EchoDebuggerResource {
 			throw new ResponderException("An intent name is required for this endpoint.", ExceptionType.UNRECOGNIZED_ID);
 		}
 
-		User user = (userDao.getUserById(userId)!=null) ? userDao.getUserById(userId) : userDao.getUserByEchoId(userId);
+		User user = resolveUploader(userId, body);
+		EchoDebuggerLogger.logSaveNewResponse(body, userId, true);	// TODO: Update this to store the intentName
+		user.setLastUploadTime(Instant.now());
 
-		boolean requestIsAllowed = debugMode || user != null;
-		EchoDebuggerLogger.logSaveNewResponse(body, userId, requestIsAllowed);	// TODO: Update this to store the intentName
+		IntentResponses intentResponses;
+		try {
+			intentResponses = prepareUpload(user, responseKey, body);
+		} catch (ResponderException e) {
+			// The rejected upload still counts towards the user's statistics
+			userDao.recordActivity(user);
+			throw e;
+		}
+		IntentResponses stored;
+		Map<String, IntentResponses> previous;
+		Map<String, IntentResponses> changed;
+		// Changes to a user hold its monitor, so this reads exactly what the upload changed
+		synchronized(user){
+			previous = user.getIntents();
+			stored = user.addIntentResponse(intentResponses, precondition);
+			changed = user.getIntents();
+		}
 
-		if(user == null){
-			// DebugMode let's us register responses for accounts that don't exist
-			if(debugMode){
-				userDao.createUser(userId);
-				user = userDao.getUserByEchoId(userId);
-			}
-			// If the request is for an ID that we haven't seen before, refuse it
-			else{
-				throw new ResponderException("This is not a known id. Please access this skill through your Echo to automatically register your Echo and obtain an id.", ExceptionType.UNRECOGNIZED_ID);
-			}
+		if(stored == null){
+			// Nothing was stored, so nothing needs a durable write. The attempt still counts towards the user's statistics.
+			userDao.recordActivity(user);
+			throw new ResponderException("The responses for intent ("+intentName+") have changed since they were read. Get them again, and retry with the new ETag.",
+					ExceptionType.PRECONDITION_FAILED);
 		}
+		saveUpload(user, previous, changed);
+		return stored;
+	}
 
-		user.setLastUploadTime(Instant.now());
-		user.setNumContentUploads(user.getNumContentUploads()+1);
+	/**
+	 * Saves many responses in one request. The body is a JSON array of entries, or newline delimited JSON with one entry
+	 * per line, each like {"intentName":"GETRESPONSE","data":{...}}. An entry can also have "variables" and "state",
+	 * which work like the query parameters of a single upload.
+	 * Entries are read one at a time as the body arrives, and the valid ones are kept until the end, then stored in a single
+	 * change to the user. An upload with more than maxUploadEntries entries is rejected with a 413, and nothing is stored.
+	 * @param body
+	 * @param userId
+	 * @return a result for each entry, in order: its response path, or why it wasn't saved
+	 */
+	@Path("/users/{userId}/intents")
+	@POST
+	@Consumes({MediaType.APPLICATION_JSON,NDJSON,MediaType.TEXT_PLAIN})
+	@Timed(name="saveResponses")
+	@ExceptionMetered(name="saveResponses.exceptions")
+	public List<Map<String, Object>> saveResponsesForUserId(
+			InputStream body,
+			@PathParam("userId") String userId) throws IOException{
 
-		// Abort storing it if the request is too long
-		int responseLength = ResponderUtils.getLengthOfContent(body);
-		user.setNumCharactersUploaded(user.getNumCharactersUploaded()+responseLength);
-		if(responseLength > maxAllowedResponseLength){
-			user.setNumUploadsTooLarge(user.getNumUploadsTooLarge()+1);
-			userDao.saveUser(user);
-			throw new ResponderException("The response is too long. Alexa limits response sizes to 8000 characters."
-					+ "This response was "+responseLength+" characters long. Please see their restrictions here: "
-					+ "https://developer.amazon.com/public/solutions/alexa/alexa-skills-kit/docs/alexa-skills-kit-interface-reference#Response%20Format",
-					ExceptionType.RESPONSE_TOO_LONG);
+		if(StringUtils.isEmpty(userId)){
+			throw new ResponderException("A userId is required for this endpoint.", ExceptionType.UNRECOGNIZED_ID);
 		}
+		User user = resolveUploader(userId, null);
+		user.setLastUploadTime(Instant.now());
 
-		IntentResponses intentResponses = user.getIntents().get(intentName);
-		if(intentResponses == null){
-			intentResponses = new IntentResponses();
-			intentResponses.setIntentName(intentName);
+		List<Map<String, Object>> results = new ArrayList<>();
+		List<IntentResponses> uploads = new ArrayList<>();
+		try(JsonParser parser = mapper.getFactory().createParser(body)){
+			JsonToken token = parser.nextToken();
+			if(token == JsonToken.START_ARRAY){
+				token = parser.nextToken();
+			}
+			while(token != null && token != JsonToken.END_ARRAY){
+				if(results.size() >= maxUploadEntries){
+					// The entries read so far still count towards the user's statistics
+					userDao.recordActivity(user);
+					throw new ResponderException("An upload can have at most "+maxUploadEntries+" entries. Nothing was saved, please split it into smaller uploads.",
+							ExceptionType.UPLOAD_TOO_LARGE);
+				}
+				Map<String, Object> result = new LinkedHashMap<>();
+				results.add(result);
+				Map<String, Object> entry;
+				try {
+					if(token != JsonToken.START_OBJECT){
+						// Read past it whole, so the entries after it can still be read
+						parser.skipChildren();
+						result.put("Error", "Entry "+results.size()+" is not an object");
+						token = parser.nextToken();
+						continue;
+					}
+					entry = mapper.readValue(parser, UPLOAD_ENTRY_TYPE);
+				} catch (JsonProcessingException e) {
+					// There's no telling where the next entry starts, so nothing after this can be read
+					result.put("Error", "Entry "+results.size()+" is not valid JSON: "+e.getOriginalMessage());
+					break;
+				}
+
+				String intentName = (entry.get("intentName") != null) ? entry.get("intentName").toString() : null;
+				result.put("intentName", intentName);
+				try {
+					IntentResponses intentResponses = prepareUpload(user, toResponseKey(entry), toData(entry));
+					EchoDebuggerLogger.logSaveNewResponse(intentResponses.getData(), userId, true);
+					uploads.add(intentResponses);
+					result.putAll(responsePath(userId, intentName));
+				} catch (ResponderException e) {
+					result.put("Error", e.getMessage());
+				}
+				token = parser.nextToken();
+			}
 		}
-		intentResponses.setData(body);
-		user.getIntents().put(intentName, intentResponses);
 
-		userDao.saveUser(user);
-
-		Map<String, Object> responseMap = new HashMap<>();
-		responseMap.put("Response path","/responder/users/"+userId+"/intents/"+intentName);
-		return responseMap;
+		Map<String, IntentResponses> previous;
+		Map<String, IntentResponses> changed;
+		synchronized(user){
+			previous = user.getIntents();
+			user.addIntentResponses(uploads);
+			changed = user.getIntents();
+		}
+		saveUpload(user, previous, changed);
+		return results;
 	}
 
 	// TODO: Remove this endpoint after people stop using it
 	@Path("/user/{userId}")
 	@GET
+	@Timed(name="getDefaultResponse_legacy")
+	@ExceptionMetered(name="getDefaultResponse_legacy.exceptions")
 	public Map<String, Object> getDefaultResponseByUserId_legacy(@PathParam("userId") String userId){
 		LOG.info(userId+" is still using legacy GET /user/{userId}");
-		getDefaultResponseByUserId(userId);
+		getDefaultResponseByUserId(userId, null);
 		Map<String, Object> response = new HashMap<>();
 		response.put("Warning", "This endpoint is deprecated and will be removed October 31st 2016. Responder has recently changed the API to use plural resource identifiers. Please use /users/{userId} instead.");
 		return response;
 	}
 
+	/**
+	 * Returns the default response, tagged with the intent's ETag. A request whose If-None-Match has that ETag
+	 * gets a 304 instead, without the response being read or counted as a download.
+	 */
 	// TODO: Change this endpoint to be a UI in a webpage that lets people manually edit their entries
 	@Path("/users/{userId}")
 	@GET
-	public Map<String, Object> getDefaultResponseByUserId(@PathParam("userId") String userId){
+	@Timed(name="getDefaultResponse")
+	@ExceptionMetered(name="getDefaultResponse.exceptions")
+	public Response getDefaultResponseByUserId(@PathParam("userId") String userId, @Context Request request){
 
-		User user = (userDao.getUserById(userId)!=null) ? userDao.getUserById(userId) : userDao.getUserByEchoId(userId);
+		User user = userDao.resolve(userId);
 		if(user==null){
 			EchoDebuggerLogger.logAccessRequest(userId,"SINGLE_RESPONSE",false);
-			throw new ResponderException("There is no user with the id of ("+userId+")", ExceptionType.UNRECOGNIZED_ID);
+			throw unknownId(userId);
 		}
 		EchoDebuggerLogger.logAccessRequest(user.getEchoId(),"SINGLE_RESPONSE",true);
+
+		IntentResponses defaultResponses = user.getIntents().get("GETRESPONSE");
+		EntityTag etag = (defaultResponses != null) ? new EntityTag(defaultResponses.getEtag()) : null;
+		Response unchanged = evaluatePreconditions(request, etag);
+		if(unchanged != null){return unchanged;}
+
 		user.setLastWebDownloadTime(Instant.now());
-		user.setNumContentDownloads(user.getNumContentDownloads()+1);
+		user.incrementNumContentDownloads();
 
 		// Get the response
 		Map<String, Object> response = null;
-		Map<String, IntentResponses> intentResponses = user.getIntents();
-		if(MapUtils.isNotEmpty(intentResponses) &&
-				intentResponses.containsKey("GETRESPONSE")){
-			response = intentResponses.get("GETRESPONSE").getData();
+		int responseLength = 0;
+		if(defaultResponses != null){
+			response = defaultResponses.getData();
+			SerializedContent serializedResponse = defaultResponses.getSerializedData();
+			responseLength = (serializedResponse != null) ? serializedResponse.getLength() : 0;
 		}
 
-		int responseLength = ResponderUtils.getLengthOfContent(response);
-		user.setNumCharactersDownloaded(user.getNumCharactersDownloaded()+responseLength);
-		userDao.saveUser(user);
+		user.addNumCharactersDownloaded(responseLength);
+		userDao.recordActivity(user);
+		responseSizes.update(responseLength);
 
 		if(response==null){
 			throw new ResponderException("There are no responses stored for user ("+userId+")", ExceptionType.NO_SAVED_RESPONSE);
 		}
-		return response;
+		return Response.ok(response).tag(etag).build();
 	}
 
+	/**
+	 * Returns every intent, tagged with an ETag covering all of them. Supports If-None-Match like getDefaultResponseByUserId.
+	 */
 	@Path("/users/{userId}/intents")
 	@GET
-	public Map<String, Object> getResponsesForUser(
-			@PathParam("userId") String userId){
-		User user = (userDao.getUserById(userId)!=null) ? userDao.getUserById(userId) : userDao.getUserByEchoId(userId);
+	@Timed(name="getIntents")
+	@ExceptionMetered(name="getIntents.exceptions")
+	public Response getResponsesForUser(
+			@PathParam("userId") String userId,
+			@Context Request request){
+		User user = userDao.resolve(userId);
 		if(user==null){
 			EchoDebuggerLogger.logAccessRequest(userId,"ALL_INTENTS",false);	// TODO: Upgrade this
-			throw new ResponderException("There is no user with the id of ("+userId+")", ExceptionType.UNRECOGNIZED_ID);
+			throw unknownId(userId);
 		}
 
+		Map<String, IntentResponses> intents = user.getIntents();
+		EntityTag etag = new EntityTag(User.etagOf(intents));
+		Response unchanged = evaluatePreconditions(request, etag);
+		if(unchanged != null){return unchanged;}
+
 		// TODO: Build a presentation-layer version of this object instead of returning the actual object
-		return user.getIntents().entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey, e -> e.getValue()));
+		return Response.ok(new HashMap<>(intents)).tag(etag).build();
 	}
 
+	/**
+	 * Returns an intent's responses, tagged with its ETag. Supports If-None-Match like getDefaultResponseByUserId.
+	 */
 	@Path("/users/{userId}/intents/{intentName}")
 	@GET
-	public Object getResponsesForUser(
+	@Timed(name="getIntent")
+	@ExceptionMetered(name="getIntent.exceptions")
+	public Response getResponsesForUser(
 			@PathParam("userId") String userId,
-			@PathParam("intentName") String intentName){
-		User user = (userDao.getUserById(userId)!=null) ? userDao.getUserById(userId) : userDao.getUserByEchoId(userId);
+			@PathParam("intentName") String intentName,
+			@Context Request request){
+		User user = userDao.resolve(userId);
 		if(user==null){
 			EchoDebuggerLogger.logAccessRequest(userId,"ALL_INTENTS",false);	// TODO: Upgrade this
-			throw new ResponderException("There is no user with the id of ("+userId+")", ExceptionType.UNRECOGNIZED_ID);
+			throw unknownId(userId);
 		}
 
 		// TODO: Build a presentation-layer version of this object instead of returning the actual object
 		IntentResponses intentResponses = user.getIntents().get(intentName);
-		return intentResponses;
+		if(intentResponses == null){
+			return Response.noContent().build();
+		}
+		EntityTag etag = new EntityTag(intentResponses.getEtag());
+		Response unchanged = evaluatePreconditions(request, etag);
+		if(unchanged != null){return unchanged;}
+		return Response.ok(intentResponses).tag(etag).build();
 	}
 
 	@Path("/users")
 	@GET
-	public Object getAllResponses(@QueryParam("p") String p){
+	@Timed(name="getAllResponses")
+	@ExceptionMetered(name="getAllResponses.exceptions")
+	public Object getAllResponses(
+			@QueryParam("p") String p,
+			@QueryParam("limit") Integer limit,
+			@QueryParam("cursor") String cursor,
+			@QueryParam("fields") String fields){
 		if(p==null || !p.equals(password)){
 			EchoDebuggerLogger.logAccessRequest("ROOT","ALL_RESPONSES,p="+p,false);
 			Map<String, Object> response = new HashMap<String, Object>();
@@ -271,14 +500,29 @@ public class EchoDebuggerResource {
 			return response;
 		}
 		EchoDebuggerLogger.logAccessRequest("ROOT","ALL_RESPONSES,p="+p,true);
-		List<User> users = userDao.getAllUserData();
-		Collections.sort(users, UserSorter.SORT_USER_BY_MOST_RECENT_UPLOAD);
-		return users;
+		boolean summary = SUMMARY_FIELDS.equals(fields);
+
+		// Without paging, every user is returned as a plain list, as before
+		if(limit == null && cursor == null){
+			List<User> users = userDao.getUsersByMostRecentUpload(null, Integer.MAX_VALUE).getUsers();
+			return summary ? summarize(users) : users;
+		}
+
+		int pageSize = (limit != null) ? Math.max(1, Math.min(limit, MAX_PAGE_SIZE)) : DEFAULT_PAGE_SIZE;
+		UserPage page = userDao.getUsersByMostRecentUpload(cursor, pageSize);
+		if(page == null){
+			throw new ResponderException("The cursor ("+cursor+") is not valid. Use the nextCursor of the previous page.", ExceptionType.INVALID_CURSOR);
+		}
+		Map<String, Object> response = new LinkedHashMap<>();
+		response.put("users", summary ? summarize(page.getUsers()) : page.getUsers());
+		response.put("nextCursor", page.getNextCursor());
+		return response;
 	}
 
 	// Deprecate this
 	@Path("/user")
 	@GET
+	@Timed(name="getAllResponses_legacy")
 	public Object getAllResponses_old(@QueryParam("p") String p){
 		LOG.info("Legacy request for GET /user");
 		Map<String,String> response = new HashMap<>();
@@ -288,6 +532,8 @@ public class EchoDebuggerResource {
 
 	@Path("/users/{userId}")
 	@DELETE
+	@Timed(name="deleteUser")
+	@ExceptionMetered(name="deleteUser.exceptions")
 	public Object deleteUserById(
 			@PathParam("userId") String userId,
 			@QueryParam("p") String p){
@@ -300,10 +546,10 @@ public class EchoDebuggerResource {
 		}
 		EchoDebuggerLogger.logAccessRequest("ROOT","DELETE_USER,p="+p,true);
 
-		User user = (userDao.getUserById(userId)!=null) ? userDao.getUserById(userId) : userDao.getUserByEchoId(userId);
+		User user = userDao.resolve(userId);
 		if(user==null){
 			EchoDebuggerLogger.logAccessRequest(userId,"DELETE_USER",false);
-			throw new ResponderException("There is no user with the id of ("+userId+")", ExceptionType.UNRECOGNIZED_ID);
+			throw unknownId(userId);
 		}
 
 		return userDao.deleteUser(user);
@@ -311,14 +557,16 @@ public class EchoDebuggerResource {
 
 	@Path("/users/{userId}/intents/{intentName}")
 	@DELETE
+	@Timed(name="deleteIntent")
+	@ExceptionMetered(name="deleteIntent.exceptions")
 	public Object deleteIntent(
 			@PathParam("userId") String userId,
 			@PathParam("intentName") String intentName){
 
-		User user = (userDao.getUserById(userId)!=null) ? userDao.getUserById(userId) : userDao.getUserByEchoId(userId);
+		User user = userDao.resolve(userId);
 		if(user==null){
 			EchoDebuggerLogger.logAccessRequest(userId,"DELETE_INTENT",false);
-			throw new ResponderException("There is no user with the id of ("+userId+")", ExceptionType.UNRECOGNIZED_ID);
+			throw unknownId(userId);
 		}
 		IntentResponses intentResponses = userDao.deleteIntent(user, intentName);
 		if(intentResponses == null){
@@ -337,6 +585,8 @@ public class EchoDebuggerResource {
 	 * @throws SpeechletException
 	 */
 	@POST
+	@Timed(name="echoRequest")
+	@ExceptionMetered(name="echoRequest.exceptions")
 	public Object handleEchoRequest(SpeechletRequestEnvelope request) throws SpeechletException{
 
 		if (request==null || request.getRequest() == null) {
@@ -355,6 +605,19 @@ public class EchoDebuggerResource {
 			intent = "END_OF_CONVERSATION";
 		}
 
+		Timer timer = echoRequestTimers.get(TIMED_INTENTS.contains(intent) ? intent : CUSTOM_INTENT);
+		Timer.Context context = timer.time();
+		try {
+			return respondToEchoRequest(request, intent);
+		} finally {
+			context.stop();
+		}
+	}
+
+	public UserDao getUserDao() {return userDao;}
+	public void setUserDao(UserDao userDao) {this.userDao = userDao;}
+
+	private Object respondToEchoRequest(SpeechletRequestEnvelope request, String intent){
 		// If the user doesn't exist, create them
 		String echoId = request.getSession().getUser().getUserId();
 		User user = userDao.getUserByEchoId(echoId);
@@ -365,11 +628,13 @@ public class EchoDebuggerResource {
 		EchoDebuggerLogger.logEchoRequest(echoId,intent);
 
 		Map<String, String> slots = ResponderUtils.getMessageAsMap(request.getRequest());
+		Object stateAttribute = request.getSession().getAttribute(STATE_ATTRIBUTE);
+		String state = (stateAttribute != null) ? stateAttribute.toString() : null;
 
 		// If the user has intents registered to override default Responder intents, then use them
 		Set<String> registeredIntents = user.getIntents().keySet();
 		if(registeredIntents.contains(intent)){
-			return getUserContent(user, intent, null, slots);
+			return getUserContent(user, intent, state, slots);
 		}
 
 		// Else the user inherits some default intent processing from Responder
@@ -387,37 +652,59 @@ public class EchoDebuggerResource {
 			return AlexaResponseUtil.createSimpleResponse(null,null,null);
 		case "START_OF_CONVERSATION":
 			intent = "GETRESPONSE";
-			return getUserContent(user, intent, null, slots);
+			return getUserContent(user, intent, state, slots);
 		case "GETRESPONSE":
 		default:
-			return getUserContent(user, intent, null, slots);
+			return getUserContent(user, intent, state, slots);
 		}
 	}
 
-	public UserDao getUserDao() {return userDao;}
-	public void setUserDao(UserDao userDao) {this.userDao = userDao;}
-
 	public Object getUserContent(User user, String intent, String state, Map<String,String> slots){
 
 		if(MapUtils.isEmpty(slots)){slots = null;}
 
 		Object response = null;
+		int contentLength = 0;
 		IntentResponses intentResponses = user.getIntents().get(intent);
-		if(intentResponses==null || MapUtils.isEmpty(intentResponses.getData())){
+		if(intentResponses != null){
+			intentResponses = intentResponses.match(slots, state);
+		}
+		if(intentResponses==null || !intentResponses.hasData()){
 			ResponseKey responseKey = new ResponseKey(intent, slots, state);
 			String serializedResponseKey = ResponderUtils.serialize(responseKey);
 			response = AlexaResponseUtil.createSimpleResponse("There is no response for this input","There is no response for this input\n"+serializedResponseKey,"There is no response for this input");
+			contentLength = ResponderUtils.getLengthOfContent(response);
 		}
 		else {
-			response = intentResponses.getData();
+			// Stream the cached bytes rather than having Jackson serialize the response again
+			SerializedContent storedResponse = intentResponses.getSerializedData();
+			ResponseTemplate template = intentResponses.getTemplate();
+			if(template.hasPlaceholders() && slots != null){
+				ResponseTemplate.Rendered rendered = template.render(storedResponse, slots);
+				response = (StreamingOutput) rendered::writeTo;
+				contentLength = rendered.getLength();
+			}
+			else{
+				response = (StreamingOutput) storedResponse::writeTo;
+				contentLength = storedResponse.getLength();
+			}
+
+			// Slot values can push a response that was short enough when uploaded past the limit
+			if(contentLength > maxAllowedResponseLength){
+				renderedTooLarge.inc();
+				response = AlexaResponseUtil.createSimpleResponse("This response is too long",
+						"With the slot values filled in, this response is "+contentLength+" characters long. The limit is "+maxAllowedResponseLength+".",
+						"This response is too long once the slot values are filled in");
+				contentLength = ResponderUtils.getLengthOfContent(response);
+			}
 		}
 
 		// Update statistics for the user
-		user.setNumContentDownloads(user.getNumContentDownloads()+1);
+		user.incrementNumContentDownloads();
 		user.setLastEchoDownloadTime(Instant.now());
-		int contentLength = ResponderUtils.getLengthOfContent(response);
-		user.setNumCharactersDownloaded(user.getNumCharactersDownloaded() + contentLength);
-		userDao.saveUser(user);
+		user.addNumCharactersDownloaded(contentLength);
+		userDao.recordActivity(user);
+		responseSizes.update(contentLength);
 
 		return response;
 	}
@@ -438,4 +725,159 @@ public class EchoDebuggerResource {
 				+ "For details, follow the documentation link that I've just printed in your Alexa app.";
 		return AlexaResponseUtil.createSimpleResponse("How to use the A.S.K. Responder",plaintext,ssml);
 	}
+
+	// Local helper functions
+	/**
+	 * The DAO keeps running totals, so this is cheap enough to read on every report
+	 */
+	private StoredContent storedContent(){
+		return (userDao != null) ? userDao.getStoredContent() : StoredContent.NONE;
+	}
+
+	/**
+	 * @return the 304 or 412 response if the request's conditional headers say so, or null to go ahead
+	 */
+	private static Response evaluatePreconditions(Request request, EntityTag etag){
+		if(request == null || etag == null){return null;}
+		ResponseBuilder builder = request.evaluatePreconditions(etag);
+		return (builder != null) ? builder.tag(etag).build() : null;
+	}
+
+	/**
+	 * Compares an If-Match header with the ETag of an intent's current responses, which is null if it has none
+	 */
+	private static boolean matchesIfMatch(String ifMatch, IntentResponses current){
+		if(ifMatch == null){return true;}
+		if(current == null){return false;}
+		String etag = new EntityTag(current.getEtag()).toString();
+		for(String tag : ifMatch.split(",")){
+			tag = tag.trim();
+			// Weak tags never match, so a W/ prefix fails here too
+			if(tag.equals("*") || tag.equals(etag)){return true;}
+		}
+		return false;
+	}
+
+	private static Map<String, Object> responsePath(String userId, String intentName){
+		Map<String, Object> responseMap = new HashMap<>();
+		responseMap.put("Response path","/responder/users/"+userId+"/intents/"+intentName);
+		return responseMap;
+	}
+
+	private static List<UserSummary> summarize(List<User> users){
+		return users.stream().map(UserSummary::new).collect(Collectors.toList());
+	}
+
+	/**
+	 * Finds the user an upload is for. In debug mode, an upload for an unknown id creates the user.
+	 */
+	private User resolveUploader(String userId, Map<String, Object> body){
+		User user = userDao.resolve(userId);
+		if(user != null){return user;}
+
+		// DebugMode let's us register responses for accounts that don't exist
+		if(debugMode){
+			userDao.createUser(userId);
+			return userDao.getUserByEchoId(userId);
+		}
+		// If the request is for an ID that we haven't seen before, refuse it
+		EchoDebuggerLogger.logSaveNewResponse(body, userId, false);
+		unknownIds.inc();
+		throw new ResponderException("This is not a known id. Please access this skill through your Echo to automatically register your Echo and obtain an id.", ExceptionType.UNRECOGNIZED_ID);
+	}
+
+	/**
+	 * Saves the user after an upload changed its intents from previous to changed. If the save fails, the upload is
+	 * taken back out of the user, unless another change has been made since, so it isn't served or written later.
+	 * @throws ResponderException if the user couldn't be saved
+	 */
+	private void saveUpload(User user, Map<String, IntentResponses> previous, Map<String, IntentResponses> changed){
+		if(userDao.saveUser(user)){return;}
+
+		if(user.replaceIntents(changed, previous)){
+			// Puts the store back in step with the user. If this fails too, the next save of the user corrects it.
+			userDao.saveUser(user);
+		}
+		throw new ResponderException("The responses could not be saved. Please try again later.", ExceptionType.NOT_SAVED);
+	}
+
+	/**
+	 * Counts an upload towards the user's statistics, and builds the response to store
+	 * @throws ResponderException if the response can't be stored
+	 */
+	private IntentResponses prepareUpload(User user, ResponseKey responseKey, Map<String, Object> body){
+		if(StringUtils.isEmpty(responseKey.getIntentName())){
+			throw new ResponderException("An intent name is required for every response.", ExceptionType.NO_INTENT_SPECIFIED);
+		}
+		validateConditions(responseKey);
+		user.incrementNumContentUploads();
+
+		// Abort storing it if the request is too long
+		SerializedContent serializedBody = SerializedContent.of(body);
+		int responseLength = (serializedBody != null) ? serializedBody.getLength() : 0;
+		user.addNumCharactersUploaded(responseLength);
+		uploadSizes.update(responseLength);
+		if(responseLength > maxAllowedResponseLength){
+			uploadsTooLarge.inc();
+			user.incrementNumUploadsTooLarge();
+			throw new ResponderException("The response is too long. Alexa limits response sizes to 8000 characters."
+					+ "This response was "+responseLength+" characters long. Please see their restrictions here: "
+					+ "https://developer.amazon.com/public/solutions/alexa/alexa-skills-kit/docs/alexa-skills-kit-interface-reference#Response%20Format",
+					ExceptionType.RESPONSE_TOO_LONG);
+		}
+
+		// Always a new instance, a snapshot or another request may be reading the current one
+		IntentResponses intentResponses = new IntentResponses();
+		intentResponses.setIntentName(responseKey.getIntentName());
+		intentResponses.setVariables(responseKey.getVariables());
+		intentResponses.setState(responseKey.getState());
+		intentResponses.setData(body, serializedBody);
+		// Compiled now, so playing it never has to look for placeholders
+		intentResponses.getTemplate();
+		return intentResponses;
+	}
+
+	/**
+	 * Every slot condition adds a level to the intent's ResponseMatcher, so only a few, with real slot names, are accepted
+	 */
+	private static void validateConditions(ResponseKey responseKey){
+		Map<String, String> variables = responseKey.getVariables();
+		if(variables == null){return;}
+		if(variables.size() > MAX_SLOT_CONDITIONS){
+			throw new ResponderException("A response can have at most "+MAX_SLOT_CONDITIONS+" slot conditions.", ExceptionType.INVALID_RESPONSE);
+		}
+		for(String slotName : variables.keySet()){
+			if(!SLOT_NAME.matcher(slotName).matches()){
+				throw new ResponderException("("+slotName+") is not a valid slot name.", ExceptionType.INVALID_RESPONSE);
+			}
+		}
+	}
+
+	private static ResponseKey toResponseKey(Map<String, Object> entry){
+		Map<String, String> variables = new HashMap<>();
+		Object entryVariables = entry.get("variables");
+		if(entryVariables instanceof Map){
+			((Map<?, ?>) entryVariables).forEach((slot, value) -> variables.put(slot.toString(), (value != null) ? value.toString() : null));
+		}
+		else if(entryVariables != null){
+			throw new ResponderException("The variables of a response must be an object of slot names and values.", ExceptionType.INVALID_RESPONSE);
+		}
+		Object state = entry.get("state");
+		Object intentName = entry.get("intentName");
+		return new ResponseKey((intentName != null) ? intentName.toString() : null, variables, (state != null) ? state.toString() : null);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> toData(Map<String, Object> entry){
+		Object data = entry.get("data");
+		if(!(data instanceof Map)){
+			throw new ResponderException("Every response needs its \"data\" object.", ExceptionType.INVALID_RESPONSE);
+		}
+		return (Map<String, Object>) data;
+	}
+
+	private ResponderException unknownId(String userId){
+		unknownIds.inc();
+		return new ResponderException("There is no user with the id of ("+userId+")", ExceptionType.UNRECOGNIZED_ID);
+	}
 }
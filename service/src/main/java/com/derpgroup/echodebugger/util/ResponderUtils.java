@@ -1,5 +1,10 @@
 package com.derpgroup.echodebugger.util;
 
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -14,6 +19,9 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 public class ResponderUtils {
 
 	private static final ObjectMapper mapper = new ObjectMapper();
+	private static final String ETAG_DIGEST = "SHA-256";
+	// Half the hash is plenty to tell versions of one resource apart
+	private static final int ETAG_BYTES = 16;
 
 	/**
 	 * Serializes an object into a String
@@ -27,13 +35,48 @@ public class ResponderUtils {
 	}
 
 	/**
-	 * Measures the length of an object after it's serialized
+	 * Measures the length of an object after it's serialized. The serialized form is only counted, never built.
 	 */
 	public static int getLengthOfContent(Object content){
 		if(content == null){return 0;}
-		String serializedBody = serialize(content);
-		if(serializedBody == null){return 0;}
-		return serializedBody.length();
+		CharCountingWriter writer = new CharCountingWriter();
+		try {
+			mapper.writeValue(writer, content);
+		} catch (IOException e) {
+			return 0;
+		}
+		return writer.getCount();
+	}
+
+	public static MessageDigest newDigest(){
+		try {
+			return MessageDigest.getInstance(ETAG_DIGEST);
+		} catch (NoSuchAlgorithmException e) {
+			// Every JVM has to provide SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Adds a string to a digest, followed by a separator so that consecutive strings can't run together. Null counts as empty.
+	 */
+	public static void updateDigest(MessageDigest digest, String value){
+		if(value != null){
+			digest.update(value.getBytes(StandardCharsets.UTF_8));
+		}
+		digest.update((byte) 0);
+	}
+
+	/**
+	 * Finishes the digest as an ETag value, without the quotes
+	 */
+	public static String toEtag(MessageDigest digest){
+		byte[] hash = digest.digest();
+		StringBuilder etag = new StringBuilder(ETAG_BYTES * 2);
+		for(int i = 0; i < ETAG_BYTES; i++){
+			etag.append(Character.forDigit((hash[i] >> 4) & 0xF, 16)).append(Character.forDigit(hash[i] & 0xF, 16));
+		}
+		return etag.toString();
 	}
 
 	public static Map<String, String> getMessageAsMap(SpeechletRequest request) {
@@ -52,4 +95,24 @@ public class ResponderUtils {
 
 		return result;
 	}
+
+	/**
+	 * Discards everything written to it, keeping only a count of the characters
+	 */
+	private static class CharCountingWriter extends Writer {
+		private int count;
+
+		public int getCount() {return count;}
+
+		@Override
+		public void write(char[] buffer, int offset, int length) {count += length;}
+		@Override
+		public void write(int c) {count++;}
+		@Override
+		public void write(String str, int offset, int length) {count += length;}
+		@Override
+		public void flush() {}
+		@Override
+		public void close() {}
+	}
 }
@@ -0,0 +1,95 @@
+package com.derpgroup.echodebugger.commands;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.inf.ArgumentParser;
+import net.sourceforge.argparse4j.inf.Namespace;
+import net.sourceforge.argparse4j.inf.Subparser;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.derpgroup.echodebugger.model.SnapshotFormat;
+import com.derpgroup.echodebugger.model.User;
+import com.derpgroup.echodebugger.model.UserFileReader;
+
+public class ConvertSnapshotCommandTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final ConvertSnapshotCommand command = new ConvertSnapshotCommand();
+
+	@Test
+	public void parsesFormatsByName() throws Exception{
+		Namespace namespace = parse("--from", "SMILE", "--to", "JSON", "in", "out");
+		assertEquals(SnapshotFormat.SMILE, namespace.get("from"));
+		assertEquals(SnapshotFormat.JSON, namespace.get("to"));
+
+		namespace = parse("in", "out");
+		assertEquals(SnapshotFormat.JSON, namespace.get("from"));
+		assertEquals(SnapshotFormat.SMILE, namespace.get("to"));
+	}
+
+	@Test
+	public void convertsJsonToSmileAndBack() throws Exception{
+		List<User> users = new ArrayList<>();
+		for(int i = 0; i < 50; i++){
+			User user = new User("echo" + i);
+			user.setLastUploadTime(Instant.ofEpochSecond(1460000000L + i));
+			user.setNumContentUploads(i);
+			users.add(user);
+		}
+		Path json = folder.getRoot().toPath().resolve("users.json");
+		Path smile = folder.getRoot().toPath().resolve("users.smile");
+		Path back = folder.getRoot().toPath().resolve("users-back.json");
+		Files.write(json, SnapshotFormat.JSON.createMapper().writeValueAsBytes(users));
+
+		command.run(null, parse("--from", "JSON", "--to", "SMILE", json.toString(), smile.toString()));
+		command.run(null, parse("--from", "SMILE", "--to", "JSON", smile.toString(), back.toString()));
+
+		List<User> converted = read(smile, SnapshotFormat.SMILE);
+		assertEquals(users.size(), converted.size());
+		for(int i = 0; i < users.size(); i++){
+			assertEquals(users.get(i).getId(), converted.get(i).getId());
+			assertEquals(users.get(i).getLastUploadTime(), converted.get(i).getLastUploadTime());
+			assertEquals(users.get(i).getNumContentUploads(), converted.get(i).getNumContentUploads());
+		}
+		assertArrayEquals(Files.readAllBytes(json), Files.readAllBytes(back));
+	}
+
+	@Test
+	public void convertsAnEmptySnapshot() throws Exception{
+		Path json = folder.newFile("empty.json").toPath();
+		Files.write(json, "[]".getBytes("UTF-8"));
+		Path smile = folder.getRoot().toPath().resolve("empty.smile");
+		command.run(null, parse(json.toString(), smile.toString()));
+		assertEquals(0, read(smile, SnapshotFormat.SMILE).size());
+	}
+
+	// Local helper functions
+	private Namespace parse(String... args) throws Exception{
+		ArgumentParser parser = ArgumentParsers.newArgumentParser("echodebugger");
+		Subparser subparser = parser.addSubparsers().addParser(command.getName());
+		command.configure(subparser);
+		List<String> arguments = new ArrayList<>(Arrays.asList(command.getName()));
+		arguments.addAll(Arrays.asList(args));
+		return parser.parseArgs(arguments.toArray(new String[arguments.size()]));
+	}
+
+	private static List<User> read(Path file, SnapshotFormat format) throws Exception{
+		List<User> users = new ArrayList<>();
+		new UserFileReader(format.createMapper()).read(file, users::add);
+		return users;
+	}
+}
@@ -0,0 +1,146 @@
+package com.derpgroup.echodebugger.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MappedPayloadStoreTest {
+	private static final int CHUNK_SIZE = 1024;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private MappedPayloadStore store;
+
+	@Before
+	public void setUp() throws IOException{
+		Path file = folder.getRoot().toPath().resolve("payloads.mapped");
+		store = new MappedPayloadStore(file.toString(), CHUNK_SIZE, 2 * CHUNK_SIZE);
+	}
+
+	@After
+	public void tearDown() throws IOException{
+		store.close();
+	}
+
+	@Test
+	public void storedContentReadsBackTheSame() throws IOException{
+		SerializedContent content = SerializedContent.of(Collections.singletonMap("outputSpeech", "héllo"));
+		SerializedContent mapped = store.store(content);
+		assertTrue(mapped.isMapped());
+		assertEquals(content.getLength(), mapped.getLength());
+		assertEquals(content.toMap(), mapped.toMap());
+		assertSame(mapped, store.store(mapped));
+	}
+
+	@Test
+	public void aFullStoreLeavesResponsesOnTheHeap() throws IOException{
+		List<SerializedContent> kept = fill(2);
+		assertEquals(2 * CHUNK_SIZE, store.getMappedBytes());
+
+		SerializedContent overflow = new SerializedContent(padding(100));
+		assertSame(overflow, store.store(overflow));
+		assertEquals(2, kept.size());
+	}
+
+	@Test
+	public void unreferencedChunksAreFreed() throws IOException, InterruptedException{
+		List<SerializedContent> kept = fill(2);
+		kept.clear();
+
+		// Once the GC has unmapped the full chunks, a new response gets a fresh one
+		SerializedContent mapped = null;
+		for(int attempt = 0; attempt < 50 && (mapped == null || !mapped.isMapped()); attempt++){
+			System.gc();
+			Thread.sleep(20);
+			mapped = store.store(new SerializedContent(padding(100)));
+		}
+		assertTrue(mapped.isMapped());
+		// The chunk that was current when the fresh one was mapped is freed later
+		for(int attempt = 0; attempt < 50 && store.getMappedBytes() > CHUNK_SIZE; attempt++){
+			System.gc();
+			Thread.sleep(20);
+		}
+		assertEquals(CHUNK_SIZE, store.getMappedBytes());
+		assertEquals(1, chunkFiles().size());
+	}
+
+	@Test
+	public void closingDeletesTheChunkFiles() throws IOException{
+		SerializedContent mapped = store.store(new SerializedContent(padding(100)));
+		assertEquals(1, chunkFiles().size());
+		store.close();
+		assertEquals(0, chunkFiles().size());
+		// Responses still being played can read their bytes
+		assertEquals(padding(100), new String(toBytes(mapped), "UTF-8"));
+	}
+
+	@Test
+	public void movingResponsesLeavesTheOriginalAlone() throws IOException{
+		IntentResponses variant = new IntentResponses();
+		variant.setIntentName("Hello");
+		variant.setState("greeting");
+		variant.setData(Collections.singletonMap("text", "variant"));
+		IntentResponses responses = new IntentResponses();
+		responses.setIntentName("Hello");
+		responses.setData(Collections.singletonMap("text", "default"));
+		responses.setVariants(Collections.singletonList(variant));
+		String etag = responses.getEtag();
+
+		IntentResponses moved = responses.movedTo(store);
+		assertNotSame(responses, moved);
+		assertFalse(responses.isMapped());
+		assertFalse(variant.isMapped());
+		assertTrue(moved.isMapped());
+		assertTrue(moved.getVariants().get(0).isMapped());
+		assertEquals(responses.getData(), moved.getData());
+		assertEquals("greeting", moved.getVariants().get(0).getState());
+		assertEquals(etag, moved.getEtag());
+		assertSame(moved, moved.movedTo(store));
+	}
+
+	// Local helper functions
+	private List<SerializedContent> fill(int chunks) throws IOException{
+		List<SerializedContent> kept = new ArrayList<>();
+		for(int i = 0; i < chunks; i++){
+			SerializedContent mapped = store.store(new SerializedContent(padding(CHUNK_SIZE)));
+			assertTrue(mapped.isMapped());
+			kept.add(mapped);
+		}
+		return kept;
+	}
+
+	private List<Path> chunkFiles() throws IOException{
+		List<Path> files = new ArrayList<>();
+		try(DirectoryStream<Path> stream = Files.newDirectoryStream(folder.getRoot().toPath(), "payloads.mapped.*.chunk")){
+			stream.forEach(files::add);
+		}
+		return files;
+	}
+
+	private static String padding(int length){
+		return String.join("", Collections.nCopies(length, "x"));
+	}
+
+	private static byte[] toBytes(SerializedContent content){
+		byte[] bytes = new byte[content.getByteCount()];
+		content.copyTo(0, bytes, 0, bytes.length);
+		return bytes;
+	}
+}
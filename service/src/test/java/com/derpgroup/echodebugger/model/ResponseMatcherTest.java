@@ -0,0 +1,151 @@
+package com.derpgroup.echodebugger.model;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Test;
+
+public class ResponseMatcherTest {
+	private static final String[] SLOTS = {"city", "day", "food", "size"};
+	private static final String[] VALUES = {"a", "b", "c"};
+
+	@Test
+	public void theMostSpecificVariantWins(){
+		IntentResponses anyCity = variant(null, "city", ResponseMatcher.WILDCARD);
+		IntentResponses seattle = variant(null, "city", "Seattle");
+		IntentResponses asking = variant("asking");
+		ResponseMatcher matcher = new ResponseMatcher(Arrays.asList(seattle, anyCity, asking));
+
+		assertSame(seattle, matcher.match(slots("city", "seattle"), null));
+		assertSame(anyCity, matcher.match(slots("city", "Portland"), null));
+		assertNull(matcher.match(slots("day", "Monday"), null));
+		// One exact state against one exact city, so the one uploaded last wins
+		assertSame(asking, matcher.match(slots("city", "Seattle"), "asking"));
+	}
+
+	@Test
+	public void aLaterExactMatchBeatsAnEarlierOne(){
+		// The exact state leads nowhere more specific, the wildcard state leads to an exact city
+		IntentResponses asking = variant("asking");
+		IntentResponses anyStateInSeattle = variant(ResponseMatcher.WILDCARD, "city", "Seattle");
+		ResponseMatcher matcher = new ResponseMatcher(Arrays.asList(anyStateInSeattle, asking));
+
+		assertSame(anyStateInSeattle, matcher.match(slots("city", "Seattle"), "asking"));
+		assertSame(asking, matcher.match(slots("city", "Portland"), "asking"));
+	}
+
+	@Test
+	public void manySlotNamesDontUseUpTheBacktrackingBudget(){
+		List<IntentResponses> variants = new ArrayList<>();
+		for(int i = 0; i < 400; i++){
+			variants.add(variant(null, "slot" + i, "value"));
+		}
+		ResponseMatcher matcher = new ResponseMatcher(variants);
+
+		assertSame(variants.get(123), matcher.match(slots("slot123", "value"), null));
+		assertSame(variants.get(399), matcher.match(slots("slot399", "value"), null));
+	}
+
+	@Test
+	public void matchesTheSameVariantAsCheckingEveryOne(){
+		Random random = new Random(7);
+		for(int round = 0; round < 200; round++){
+			List<IntentResponses> variants = new ArrayList<>();
+			for(int i = 0; i < 40; i++){
+				variants.add(randomVariant(random));
+			}
+			ResponseMatcher matcher = new ResponseMatcher(variants);
+			for(int lookup = 0; lookup < 20; lookup++){
+				Map<String, String> slots = new HashMap<>();
+				for(String slot : SLOTS){
+					if(random.nextBoolean()){
+						slots.put(slot, VALUES[random.nextInt(VALUES.length)]);
+					}
+				}
+				String state = random.nextBoolean() ? VALUES[random.nextInt(VALUES.length)] : null;
+				assertSame(bruteForce(variants, slots, state), matcher.match(slots, state));
+			}
+		}
+	}
+
+	// Local helper functions
+	private static IntentResponses variant(String state, String... slotConditions){
+		IntentResponses variant = new IntentResponses();
+		variant.setIntentName("Weather");
+		variant.setState(state);
+		variant.setVariables(slots(slotConditions));
+		return variant;
+	}
+
+	private static Map<String, String> slots(String... namesAndValues){
+		Map<String, String> slots = new HashMap<>();
+		for(int i = 0; i < namesAndValues.length; i += 2){
+			slots.put(namesAndValues[i], namesAndValues[i + 1]);
+		}
+		return slots;
+	}
+
+	private static IntentResponses randomVariant(Random random){
+		List<String> conditions = new ArrayList<>();
+		for(String slot : SLOTS){
+			String condition = randomCondition(random);
+			if(condition != null){
+				conditions.add(slot);
+				conditions.add(condition);
+			}
+		}
+		return variant(randomCondition(random), conditions.toArray(new String[conditions.size()]));
+	}
+
+	private static String randomCondition(Random random){
+		int choice = random.nextInt(VALUES.length + 2);
+		if(choice == 0){return null;}
+		return (choice == 1) ? ResponseMatcher.WILDCARD : VALUES[choice - 2];
+	}
+
+	/**
+	 * The rules written out directly: an exact value is worth more than every wildcard, the last upload wins a tie
+	 */
+	private static IntentResponses bruteForce(List<IntentResponses> variants, Map<String, String> slots, String state){
+		int exactScore = SLOTS.length + 2;
+		IntentResponses best = null;
+		int bestScore = -1;
+		for(IntentResponses variant : variants){
+			int score = 0;
+			boolean matches = true;
+			List<String[]> conditions = new ArrayList<>();
+			conditions.add(new String[]{variant.getState(), state});
+			for(String slot : SLOTS){
+				conditions.add(new String[]{variant.getVariables().get(slot), slots.get(slot)});
+			}
+			for(String[] condition : conditions){
+				if(StringUtils.isEmpty(condition[0])){continue;}
+				if(StringUtils.isEmpty(condition[1])){
+					matches = false;
+				}
+				else if(ResponseMatcher.WILDCARD.equals(condition[0])){
+					score += 1;
+				}
+				else if(condition[0].equalsIgnoreCase(condition[1])){
+					score += exactScore;
+				}
+				else{
+					matches = false;
+				}
+			}
+			if(matches && score >= bestScore){
+				best = variant;
+				bestScore = score;
+			}
+		}
+		return best;
+	}
+}
@@ -0,0 +1,74 @@
+package com.derpgroup.echodebugger.model;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class ResponseTemplateTest {
+
+	@Test
+	public void slotValuesAreEscapedAndCounted() throws IOException{
+		SerializedContent content = SerializedContent.of(Collections.singletonMap("text", "It's {Weather} in {City}, {Unknown}"));
+		ResponseTemplate template = ResponseTemplate.compile(content);
+		Map<String, String> slots = new HashMap<>();
+		slots.put("City", "\"Zürich\"\n🌧");
+		slots.put("Weather", null);
+
+		ResponseTemplate.Rendered rendered = template.render(content, slots);
+		String written = write(rendered);
+		assertEquals(written.length(), rendered.getLength());
+		assertEquals(Collections.singletonMap("text", "It's  in \"Zürich\"\n🌧, {Unknown}"), new SerializedContent(written).toMap());
+	}
+
+	@Test
+	public void longResponsesAreWrittenThroughTheBuffer() throws IOException{
+		String padding = String.join("", Collections.nCopies(20000, "é"));
+		SerializedContent content = SerializedContent.of(Collections.singletonMap("text", padding + "{City}" + padding));
+		ResponseTemplate.Rendered rendered = ResponseTemplate.compile(content).render(content, Collections.singletonMap("City", "Oslo"));
+
+		String written = write(rendered);
+		assertEquals(written.length(), rendered.getLength());
+		assertEquals(Collections.singletonMap("text", padding + "Oslo" + padding), new SerializedContent(written).toMap());
+	}
+
+	@Test
+	public void placeholdersInKeysAreLeftAlone() throws IOException{
+		Map<String, Object> body = new HashMap<>();
+		body.put("{city}", "{city}");
+		body.put("nested", Collections.singletonMap("{day}", Collections.singletonList("{day}")));
+		SerializedContent content = SerializedContent.of(body);
+		Map<String, String> slots = new HashMap<>();
+		slots.put("city", "Oslo");
+		slots.put("day", "Monday");
+
+		String written = write(ResponseTemplate.compile(content).render(content, slots));
+		Map<String, Object> expected = new HashMap<>();
+		expected.put("{city}", "Oslo");
+		expected.put("nested", Collections.singletonMap("{day}", Collections.singletonList("Monday")));
+		assertEquals(expected, new SerializedContent(written).toMap());
+	}
+
+	@Test
+	public void anUnpairedSurrogateIsReplaced() throws IOException{
+		SerializedContent content = SerializedContent.of(Collections.singletonMap("text", "{City}"));
+		ResponseTemplate.Rendered rendered = ResponseTemplate.compile(content).render(content, Collections.singletonMap("City", "a\uD83Cb\uDF27"));
+
+		String written = write(rendered);
+		assertEquals(written.length(), rendered.getLength());
+		assertEquals(Collections.singletonMap("text", "a\uFFFDb\uFFFD"), new SerializedContent(written).toMap());
+	}
+
+	// Local helper functions
+	private static String write(ResponseTemplate.Rendered rendered) throws IOException{
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		rendered.writeTo(output);
+		return new String(output.toByteArray(), StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,190 @@
+package com.derpgroup.echodebugger.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.derpgroup.echodebugger.configuration.EchoDebuggerConfig;
+import com.derpgroup.echodebugger.configuration.MainConfig;
+
+public class SegmentedSnapshotTest {
+	private static final int USERS = 50;
+	private static final int SEGMENTS = 8;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private EchoDebuggerConfig config;
+	private Path contentFile;
+	private Path segmentDirectory;
+	private UserDaoLocalImpl dao;
+
+	@Before
+	public void setUp(){
+		contentFile = folder.getRoot().toPath().resolve("users.json");
+		segmentDirectory = contentFile.resolveSibling("users.json.segments");
+		config = new EchoDebuggerConfig();
+		config.setContentFile(contentFile.toString());
+		config.setSegmentCount(SEGMENTS);
+	}
+
+	@After
+	public void tearDown(){
+		if(dao != null){
+			dao.close();
+		}
+	}
+
+	@Test
+	public void usersSurviveARestart() throws IOException{
+		dao = open();
+		createUsers();
+		FlushStats stats = dao.saveUsersToFile();
+		assertEquals(USERS, stats.getUsersWritten());
+		dao.close();
+
+		dao = open();
+		assertAllUsersLoaded();
+		assertEquals(segmentFiles(SEGMENTS), listSegmentFiles());
+	}
+
+	@Test
+	public void onlyDirtySegmentsAreWritten() throws IOException{
+		dao = open();
+		createUsers();
+		dao.saveUsersToFile();
+
+		User changed = dao.getUserByEchoId("echo7");
+		changed.incrementNumContentUploads();
+		dao.saveUser(changed);
+		SegmentedSnapshot segments = new SegmentedSnapshot(contentFile.toString(), SEGMENTS, SnapshotFormat.JSON, new SnapshotFiles(1, 0));
+		int segment = segments.segmentOf("echo7");
+		long inSegment = dao.getAllUserData().stream().filter(user -> segments.segmentOf(user.getEchoId()) == segment).count();
+
+		FlushStats stats = dao.saveUsersToFile();
+		assertEquals(inSegment, stats.getUsersWritten());
+		assertEquals(FlushStats.NONE, dao.saveUsersToFile());
+		dao.close();
+
+		dao = open();
+		assertEquals(1, dao.getUserByEchoId("echo7").getNumContentUploads());
+	}
+
+	@Test
+	public void theLegacyContentFileIsMigrated() throws IOException{
+		config.setSegmentCount(null);
+		dao = open();
+		createUsers();
+		dao.saveUsersToFile();
+		dao.close();
+
+		config.setSegmentCount(SEGMENTS);
+		dao = open();
+		assertAllUsersLoaded();
+		// The migration rewrites every segment at startup
+		assertEquals(segmentFiles(SEGMENTS), listSegmentFiles());
+		dao.close();
+
+		// And from then on the segments are what's read
+		Files.delete(contentFile);
+		dao = open();
+		assertAllUsersLoaded();
+	}
+
+	@Test
+	public void changingTheSegmentCountRewritesEverySegment() throws IOException{
+		dao = open();
+		createUsers();
+		dao.saveUsersToFile();
+		dao.close();
+
+		config.setSegmentCount(SEGMENTS / 2);
+		dao = open();
+		assertAllUsersLoaded();
+		assertEquals(segmentFiles(SEGMENTS / 2), listSegmentFiles());
+		dao.close();
+
+		dao = open();
+		assertAllUsersLoaded();
+	}
+
+	@Test
+	public void aCorruptSegmentFallsBackToItsOlderGeneration() throws IOException{
+		dao = open();
+		createUsers();
+		dao.saveUsersToFile();
+		// Rewrite every segment, so each has an older generation to fall back to
+		for(User user : dao.getAllUserData()){
+			dao.saveUser(user);
+		}
+		dao.saveUsersToFile();
+		dao.close();
+
+		Path corrupt = segmentDirectory.resolve("003.json");
+		byte[] content = Files.readAllBytes(corrupt);
+		Files.write(corrupt, Arrays.copyOf(content, content.length / 2));
+
+		dao = open();
+		assertAllUsersLoaded();
+		dao.close();
+		// The good copy was put back in place at startup
+		assertTrue(Files.size(corrupt) > content.length / 2);
+		assertFalse(Files.exists(segmentDirectory.resolve("003.json.tmp")));
+	}
+
+	// Local helper functions
+	private UserDaoLocalImpl open(){
+		MainConfig mainConfig = new MainConfig();
+		mainConfig.setEchoDebuggerConfig(config);
+		UserDaoLocalImpl opened = new UserDaoLocalImpl(mainConfig, null);
+		opened.initialize();
+		assertTrue(opened.isInitialized());
+		return opened;
+	}
+
+	private void createUsers(){
+		for(int i = 0; i < USERS; i++){
+			dao.createUser("echo" + i);
+		}
+	}
+
+	private void assertAllUsersLoaded(){
+		assertEquals(USERS, dao.getAllUserData().size());
+		for(int i = 0; i < USERS; i++){
+			assertNotNull(dao.getUserByEchoId("echo" + i));
+		}
+	}
+
+	private Set<String> segmentFiles(int segmentCount){
+		Set<String> files = new HashSet<>();
+		for(int segment = 0; segment < segmentCount; segment++){
+			files.add(String.format("%03d.json", segment));
+		}
+		return files;
+	}
+
+	private Set<String> listSegmentFiles() throws IOException{
+		// Older generations of each segment are left out
+		try(Stream<Path> files = Files.list(segmentDirectory)){
+			return files.map(file -> file.getFileName().toString())
+					.filter(name -> name.endsWith(".json"))
+					.collect(Collectors.toSet());
+		}
+	}
+}
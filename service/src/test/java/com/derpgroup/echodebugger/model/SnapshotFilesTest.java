@@ -0,0 +1,183 @@
+package com.derpgroup.echodebugger.model;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.derpgroup.echodebugger.configuration.EchoDebuggerConfig;
+import com.derpgroup.echodebugger.configuration.MainConfig;
+
+public class SnapshotFilesTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Path target;
+
+	@Before
+	public void setUp(){
+		target = folder.getRoot().toPath().resolve("users.json");
+	}
+
+	@Test
+	public void aSingleGenerationIsReplacedInPlace() throws IOException{
+		SnapshotFiles files = new SnapshotFiles(1, 0);
+		files.write(target, bytes("first"));
+		files.write(target, bytes("second"));
+		assertArrayEquals(bytes("second"), Files.readAllBytes(target));
+		assertFalse(Files.exists(generation(1)));
+		assertFalse(Files.exists(temp()));
+	}
+
+	@Test
+	public void olderGenerationsAreKept() throws IOException{
+		SnapshotFiles files = new SnapshotFiles(3, 0);
+		for(String content : Arrays.asList("one", "two", "three", "four")){
+			files.write(target, bytes(content));
+		}
+		assertArrayEquals(bytes("four"), Files.readAllBytes(target));
+		assertArrayEquals(bytes("three"), Files.readAllBytes(generation(1)));
+		assertArrayEquals(bytes("two"), Files.readAllBytes(generation(2)));
+		assertFalse(Files.exists(generation(3)));
+	}
+
+	@Test
+	public void aFailedWriteLeavesTheSnapshotAlone() throws IOException{
+		for(int generations : new int[]{1, 3}){
+			SnapshotFiles files = new SnapshotFiles(generations, 0);
+			files.write(target, bytes("good"));
+
+			// A directory where the temp file goes makes the write fail before anything is renamed
+			Files.createDirectory(temp());
+			try {
+				files.write(target, bytes("lost"));
+				fail("The write should have failed");
+			} catch (IOException e) {
+				// Expected
+			}
+			Files.delete(temp());
+			assertArrayEquals(bytes("good"), Files.readAllBytes(target));
+			files.deleteAll(target);
+		}
+	}
+
+	@Test
+	public void aLeftoverTempFileIsIgnoredAndReplaced() throws IOException{
+		SnapshotFiles files = new SnapshotFiles(2, 0);
+		files.write(target, bytes("good"));
+		// What a crash part way through the next write leaves behind
+		Files.write(temp(), bytes("goo"));
+
+		List<Path> loaded = new ArrayList<>();
+		assertEquals(target, files.loadNewest(target, loaded::add, () -> {}));
+		files.write(target, bytes("better"));
+		assertArrayEquals(bytes("better"), Files.readAllBytes(target));
+		assertFalse(Files.exists(temp()));
+	}
+
+	@Test
+	public void loadingFallsBackPastATruncatedSnapshot() throws IOException{
+		SnapshotFiles files = new SnapshotFiles(3, 0);
+		files.write(target, bytes("[1]"));
+		files.write(target, bytes("[1,2]"));
+		Files.write(target, bytes("[1,"));
+
+		List<String> loaded = new ArrayList<>();
+		List<Integer> discards = new ArrayList<>();
+		Path file = files.loadNewest(target, generation -> {
+			String content = new String(Files.readAllBytes(generation), StandardCharsets.UTF_8);
+			loaded.add(content);
+			if(!content.endsWith("]")){throw new IOException("Truncated");}
+		}, () -> discards.add(loaded.size()));
+
+		assertEquals(generation(1), file);
+		assertEquals(Arrays.asList("[1,", "[1]"), loaded);
+		assertEquals(Arrays.asList(1), discards);
+	}
+
+	@Test
+	public void usersAreRecoveredFromTheLastGoodGeneration() throws IOException{
+		EchoDebuggerConfig config = new EchoDebuggerConfig();
+		config.setContentFile(target.toString());
+		config.setSnapshotGenerations(3);
+		MainConfig mainConfig = new MainConfig();
+		mainConfig.setEchoDebuggerConfig(config);
+
+		UserDaoLocalImpl dao = new UserDaoLocalImpl(mainConfig, null);
+		dao.initialize();
+		dao.createUser("kept");
+		assertNotNull(dao.saveUsersToFile());
+		dao.createUser("lost");
+		assertNotNull(dao.saveUsersToFile());
+		dao.close();
+
+		// Cut the newest snapshot off part way through its last user
+		byte[] newest = Files.readAllBytes(target);
+		Files.write(target, Arrays.copyOf(newest, newest.length - 10));
+
+		dao = new UserDaoLocalImpl(mainConfig, null);
+		dao.initialize();
+		assertTrue(dao.isInitialized());
+		assertNotNull(dao.getUserByEchoId("kept"));
+		// Nothing half read from the truncated file is left behind
+		assertEquals(1, dao.getAllUserData().size());
+		dao.close();
+		// And a good copy was written back in place at startup
+		assertEquals(1, SnapshotFormat.JSON.createMapper().readTree(target.toFile()).size());
+	}
+
+	@Test
+	public void anEmptiedSnapshotIsNotTakenAsHavingNoUsers() throws IOException{
+		EchoDebuggerConfig config = new EchoDebuggerConfig();
+		config.setContentFile(target.toString());
+		config.setSnapshotGenerations(3);
+		MainConfig mainConfig = new MainConfig();
+		mainConfig.setEchoDebuggerConfig(config);
+
+		UserDaoLocalImpl dao = new UserDaoLocalImpl(mainConfig, null);
+		dao.initialize();
+		dao.createUser("kept");
+		assertNotNull(dao.saveUsersToFile());
+		dao.createUser("alsoKept");
+		assertNotNull(dao.saveUsersToFile());
+		dao.close();
+
+		// A crash can leave the newest snapshot with no content at all
+		Files.write(target, new byte[0]);
+
+		dao = new UserDaoLocalImpl(mainConfig, null);
+		dao.initialize();
+		assertNotNull(dao.getUserByEchoId("kept"));
+		assertEquals(1, dao.getAllUserData().size());
+		dao.close();
+	}
+
+	// Local helper functions
+	private Path generation(int generation){
+		return target.resolveSibling(target.getFileName() + "." + generation);
+	}
+
+	private Path temp(){
+		return target.resolveSibling(target.getFileName() + ".tmp");
+	}
+
+	private static byte[] bytes(String content){
+		return content.getBytes(StandardCharsets.UTF_8);
+	}
+}
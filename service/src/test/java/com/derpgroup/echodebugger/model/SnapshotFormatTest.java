@@ -0,0 +1,69 @@
+package com.derpgroup.echodebugger.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class SnapshotFormatTest {
+
+	@Test
+	public void usersRoundTripThroughEveryFormat() throws Exception{
+		User user = sampleUser();
+		JsonNode expected = SnapshotFormat.JSON.createMapper().valueToTree(user);
+		for(SnapshotFormat format : SnapshotFormat.values()){
+			ObjectMapper mapper = format.createMapper();
+			User read = mapper.readValue(mapper.writeValueAsBytes(user), User.class);
+			assertEquals(format.name(), expected, SnapshotFormat.JSON.createMapper().valueToTree(read));
+		}
+	}
+
+	@Test
+	public void smileAndJsonDecodeToTheSameUser() throws Exception{
+		User user = sampleUser();
+		byte[] json = SnapshotFormat.JSON.createMapper().writeValueAsBytes(user);
+		byte[] smile = SnapshotFormat.SMILE.createMapper().writeValueAsBytes(user);
+		assertNotEquals(json.length, smile.length);
+
+		User fromJson = SnapshotFormat.JSON.createMapper().readValue(json, User.class);
+		User fromSmile = SnapshotFormat.SMILE.createMapper().readValue(smile, User.class);
+		assertEquals(user.getId(), fromSmile.getId());
+		assertEquals(user.getLastUploadTime(), fromSmile.getLastUploadTime());
+		assertEquals(user.getNumCharactersUploaded(), fromSmile.getNumCharactersUploaded());
+		assertEquals(fromJson.getIntents().get("GETRESPONSE").getData(), fromSmile.getIntents().get("GETRESPONSE").getData());
+		assertEquals(fromJson.getIntents().get("GETRESPONSE").getVariants().get(0).getVariables(),
+				fromSmile.getIntents().get("GETRESPONSE").getVariants().get(0).getVariables());
+	}
+
+	// Local helper functions
+	static User sampleUser(){
+		User user = new User("amzn1.echo-sdk-account.sample");
+		user.setLastUploadTime(Instant.parse("2016-05-01T10:15:30.123Z"));
+		user.setLastEchoDownloadTime(Instant.parse("2016-05-02T11:00:00Z"));
+		user.setNumContentUploads(3);
+		user.setNumCharactersUploaded(12345678901L);
+
+		Map<String, Object> data = new HashMap<>();
+		data.put("outputSpeech", Collections.singletonMap("text", "Hello, écho \"quoted\""));
+		data.put("shouldEndSession", true);
+		IntentResponses defaultResponse = new IntentResponses();
+		defaultResponse.setIntentName("GETRESPONSE");
+		defaultResponse.setData(data);
+		user.addIntentResponse(defaultResponse);
+
+		IntentResponses variant = new IntentResponses();
+		variant.setIntentName("GETRESPONSE");
+		variant.setVariables(Collections.singletonMap("city", "Seattle"));
+		variant.setData(Collections.singletonMap("text", "Rainy"));
+		user.addIntentResponse(variant);
+		return user;
+	}
+}
@@ -0,0 +1,158 @@
+package com.derpgroup.echodebugger.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.derpgroup.echodebugger.configuration.EchoDebuggerConfig;
+import com.derpgroup.echodebugger.configuration.MainConfig;
+
+/**
+ * Hammers the user index from many threads at once, then checks that both of its keys still agree
+ */
+public class UserDaoLocalImplConcurrencyTest {
+	private static final int THREADS = 16;
+	private static final int USERS = 200;
+	private static final int OPERATIONS_PER_THREAD = 20000;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private UserDaoLocalImpl dao;
+	private ExecutorService executor;
+
+	@Before
+	public void setUp(){
+		EchoDebuggerConfig config = new EchoDebuggerConfig();
+		config.setContentFile(folder.getRoot().toPath().resolve("users.json").toString());
+		MainConfig mainConfig = new MainConfig();
+		mainConfig.setEchoDebuggerConfig(config);
+		dao = new UserDaoLocalImpl(mainConfig, null);
+		dao.initialize();
+		executor = Executors.newFixedThreadPool(THREADS);
+	}
+
+	@After
+	public void tearDown() throws InterruptedException{
+		executor.shutdownNow();
+		executor.awaitTermination(10, TimeUnit.SECONDS);
+		dao.close();
+	}
+
+	@Test
+	public void concurrentCreatesOfOneEchoIdShareOneUser() throws Exception{
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<User>> created = new ArrayList<>();
+		for(int i = 0; i < THREADS; i++){
+			created.add(executor.submit(() -> {
+				start.await();
+				return dao.createUser("contended");
+			}));
+		}
+		start.countDown();
+
+		User user = created.get(0).get();
+		assertSame(user, dao.getUserByEchoId("contended"));
+		for(Future<User> future : created){
+			assertSame(user, future.get());
+		}
+		assertSame(user, dao.getUserById(user.getId().toString()));
+		assertEquals(1, dao.getAllUserData().size());
+	}
+
+	@Test
+	public void mixedOperationsKeepBothIndexesConsistent() throws Exception{
+		Set<Throwable> failures = Collections.newSetFromMap(new ConcurrentHashMap<>());
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<?>> workers = new ArrayList<>();
+		for(int i = 0; i < THREADS; i++){
+			workers.add(executor.submit((Callable<Void>) () -> {
+				start.await();
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				for(int op = 0; op < OPERATIONS_PER_THREAD; op++){
+					String echoId = "echo" + random.nextInt(USERS);
+					try {
+						switch(random.nextInt(6)){
+						case 0:
+							dao.createUser(echoId);
+							break;
+						case 1:
+							User saved = dao.getUserByEchoId(echoId);
+							if(saved != null){
+								dao.saveUser(saved);
+							}
+							break;
+						case 2:
+							User deleted = dao.getUserByEchoId(echoId);
+							if(deleted != null){
+								dao.deleteUser(deleted);
+							}
+							break;
+						case 3:
+							// Whatever an id resolves to must be the user that has that id
+							User byEchoId = dao.getUserByEchoId(echoId);
+							if(byEchoId != null){
+								User byId = dao.resolve(byEchoId.getId().toString());
+								if(byId != null && !byId.getId().equals(byEchoId.getId())){
+									throw new AssertionError("Id "+byEchoId.getId()+" resolved to "+byId.getId());
+								}
+							}
+							break;
+						case 4:
+							dao.getAllUserData();
+							break;
+						default:
+							assertNull(dao.resolve("unknown" + random.nextInt(USERS)));
+						}
+					} catch (Throwable e) {
+						failures.add(e);
+					}
+				}
+				return null;
+			}));
+		}
+		start.countDown();
+		for(Future<?> worker : workers){
+			worker.get(2, TimeUnit.MINUTES);
+		}
+		assertEquals(Collections.emptySet(), failures);
+
+		// Once everything has settled, each user is found by both of its keys
+		List<User> users = dao.getAllUserData();
+		Set<String> echoIds = new HashSet<>();
+		for(User user : users){
+			echoIds.add(user.getEchoId());
+			assertSame(user, dao.getUserByEchoId(user.getEchoId()));
+			assertSame(user, dao.getUserById(user.getId().toString()));
+		}
+		assertEquals(users.size(), echoIds.size());
+		for(int i = 0; i < USERS; i++){
+			User user = dao.getUserByEchoId("echo" + i);
+			assertEquals(echoIds.contains("echo" + i), user != null);
+			if(user != null){
+				assertNotNull(dao.resolve(user.getId().toString()));
+			}
+		}
+	}
+}
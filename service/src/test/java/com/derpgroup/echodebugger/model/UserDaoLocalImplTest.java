@@ -0,0 +1,323 @@
+package com.derpgroup.echodebugger.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.derpgroup.echodebugger.configuration.EchoDebuggerConfig;
+import com.derpgroup.echodebugger.configuration.MainConfig;
+
+public class UserDaoLocalImplTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private EchoDebuggerConfig config;
+	private Path contentFile;
+	private Path journalFile;
+	private UserDaoLocalImpl dao;
+
+	@Before
+	public void setUp() throws IOException{
+		contentFile = folder.getRoot().toPath().resolve("users.json");
+		journalFile = folder.getRoot().toPath().resolve("users.journal");
+		config = new EchoDebuggerConfig();
+		config.setContentFile(contentFile.toString());
+		config.setJournalFile(journalFile.toString());
+		// Every save compacts the journal
+		config.setJournalCompactionSize(1L);
+		config.setGroupCommitWindowMillis(0L);
+	}
+
+	@After
+	public void tearDown(){
+		if(dao != null){
+			dao.close();
+		}
+	}
+
+	@Test
+	public void compactionRecoversFromAFailedSnapshot() throws IOException{
+		dao = open();
+		dao.createUser("first");
+
+		// The snapshot is written to a temp file first, and a directory in its place makes that fail
+		File blocker = contentFile.resolveSibling("users.json.tmp").toFile();
+		assertTrue(blocker.mkdir());
+		assertNull(dao.saveUsersToFile());
+		assertTrue(Files.exists(rotatedJournal()));
+
+		dao.createUser("second");
+		assertTrue(blocker.delete());
+		assertNotNull(dao.saveUsersToFile());
+		assertFalse(Files.exists(rotatedJournal()));
+		assertEquals(0, journalSize());
+
+		// And the next compaction rotates as usual
+		dao.createUser("third");
+		assertNotNull(dao.saveUsersToFile());
+		assertFalse(Files.exists(rotatedJournal()));
+		dao.close();
+
+		dao = open();
+		assertNotNull(dao.getUserByEchoId("first"));
+		assertNotNull(dao.getUserByEchoId("second"));
+		assertNotNull(dao.getUserByEchoId("third"));
+	}
+
+	@Test
+	public void journaledChangesSurviveAFailedSnapshot() throws IOException{
+		dao = open();
+		dao.createUser("first");
+		assertTrue(contentFile.resolveSibling("users.json.tmp").toFile().mkdir());
+		assertNull(dao.saveUsersToFile());
+		dao.createUser("second");
+		dao.close();
+
+		// Both the rotated and the live journal are replayed over the old snapshot
+		assertTrue(contentFile.resolveSibling("users.json.tmp").toFile().delete());
+		dao = open();
+		assertNotNull(dao.getUserByEchoId("first"));
+		assertNotNull(dao.getUserByEchoId("second"));
+		assertFalse(Files.exists(rotatedJournal()));
+	}
+
+	@Test
+	public void activityIsJournaledWithoutTheUser() throws IOException{
+		dao = open();
+		User user = idleUser("played", 1);
+		long journaled = journalSize();
+		Instant played = Instant.now();
+		user.incrementNumContentDownloads();
+		user.setLastEchoDownloadTime(played);
+		dao.recordActivity(user);
+		assertTrue(dao.isDirty());
+		dao.close();
+
+		// Just the statistics, not the user and its responses
+		List<String> lines = Files.readAllLines(journalFile);
+		String record = lines.get(lines.size() - 1);
+		assertTrue(record.contains("UPDATE_STATS"));
+		assertFalse(record.contains("intents"));
+		assertTrue(journalSize() - journaled < 512);
+
+		dao = open();
+		User replayed = dao.getUserByEchoId("played");
+		assertEquals(1, replayed.getNumContentDownloads());
+		assertEquals(played, replayed.getLastEchoDownloadTime());
+		assertEquals(1, replayed.getIntents().size());
+	}
+
+	@Test
+	public void activityIsNotReplayedOntoANewAccount() throws IOException{
+		dao = open();
+		User deleted = dao.createUser("reused");
+		dao.deleteUser(deleted);
+		dao.createUser("reused");
+		deleted.incrementNumContentDownloads();
+		dao.recordActivity(deleted);
+		assertEquals(0, dao.getUserByEchoId("reused").getNumContentDownloads());
+		dao.close();
+
+		dao = open();
+		assertEquals(0, dao.getUserByEchoId("reused").getNumContentDownloads());
+	}
+
+	@Test
+	public void evictedUsersAreStillListedAndCounted(){
+		config.setHotUserLimit(1);
+		dao = open();
+		User evicted = idleUser("evicted", 1);
+		idleUser("kept", 2);
+		assertEquals(1, dao.evictIdleUsers());
+
+		assertEquals(1, dao.getAllUserData().size());
+		assertEquals(2, dao.getStoredContent().getUsers());
+		assertEquals(2, dao.getStoredContent().getIntents());
+		List<User> listed = dao.getUsersByMostRecentUpload(null, 10).getUsers();
+		assertEquals(Arrays.asList("kept", "evicted"), echoIds(listed));
+		// Listing a cold user doesn't bring it back into memory
+		assertEquals(1, dao.getAllUserData().size());
+
+		User loaded = dao.getUserById(evicted.getId().toString());
+		assertEquals("evicted", loaded.getEchoId());
+		assertEquals(2, dao.getAllUserData().size());
+		assertEquals(2, dao.getStoredContent().getUsers());
+	}
+
+	@Test
+	public void storedContentIsKeptUpToDate(){
+		config.setHotUserLimit(1);
+		dao = open();
+		User evicted = idleUser("evicted", 1);
+		User kept = idleUser("kept", 2);
+		IntentResponses extra = new IntentResponses();
+		extra.setIntentName("Goodbye");
+		extra.setData(Collections.singletonMap("text", "bye"));
+		kept.addIntentResponse(extra);
+		dao.saveUser(kept);
+		assertCounted(2, 3);
+
+		assertEquals(1, dao.evictIdleUsers());
+		assertCounted(2, 3);
+		dao.deleteIntent(kept, "Goodbye");
+		assertCounted(2, 2);
+		dao.getUserByEchoId("evicted");
+		assertCounted(2, 2);
+		dao.deleteUser(evicted);
+		assertCounted(1, 1);
+		assertEquals(StoredContent.of(dao.getAllUserData()).getPayloadBytes(), dao.getStoredContent().getPayloadBytes());
+	}
+
+	@Test
+	public void coldUsersAreIndexedAcrossARestart(){
+		config.setHotUserLimit(1);
+		dao = open();
+		User evicted = idleUser("evicted", 1);
+		idleUser("kept", 2);
+		assertEquals(1, dao.evictIdleUsers());
+		assertNotNull(dao.saveUsersToFile());
+		dao.close();
+
+		dao = open();
+		assertEquals(1, dao.getAllUserData().size());
+		assertEquals(2, dao.getStoredContent().getUsers());
+		assertEquals(Arrays.asList("kept", "evicted"), echoIds(dao.getUsersByMostRecentUpload(null, 10).getUsers()));
+		assertNull(dao.resolve(UUID.randomUUID().toString()));
+		assertNotNull(dao.resolve(evicted.getId().toString()));
+	}
+
+	@Test
+	public void savingAnEvictedUserKeepsItsChanges(){
+		config.setHotUserLimit(1);
+		dao = open();
+		User held = idleUser("held", 1);
+		idleUser("kept", 2);
+		assertEquals(1, dao.evictIdleUsers());
+
+		// A request that fetched the user before it was evicted
+		held.incrementNumContentDownloads();
+		dao.saveUser(held);
+		assertSame(held, dao.getUserByEchoId("held"));
+		assertEquals(1, dao.getUserByEchoId("held").getNumContentDownloads());
+		assertEquals(2, dao.getStoredContent().getUsers());
+	}
+
+	@Test
+	public void deletedColdUsersAreForgotten(){
+		config.setHotUserLimit(1);
+		dao = open();
+		User deleted = idleUser("deleted", 1);
+		idleUser("kept", 2);
+		assertEquals(1, dao.evictIdleUsers());
+
+		dao.deleteUser(dao.getUserByEchoId("deleted"));
+		assertNull(dao.getUserByEchoId("deleted"));
+		assertNull(dao.getUserById(deleted.getId().toString()));
+		assertEquals(1, dao.getStoredContent().getUsers());
+		assertEquals(Arrays.asList("kept"), echoIds(dao.getUsersByMostRecentUpload(null, 10).getUsers()));
+	}
+
+	@Test
+	public void anUnreadableColdUserIsSetAside() throws IOException{
+		config.setHotUserLimit(1);
+		dao = open();
+		idleUser("broken", 1);
+		idleUser("evicted", 2);
+		idleUser("kept", 3);
+		assertEquals(2, dao.evictIdleUsers());
+		assertNotNull(dao.saveUsersToFile());
+		dao.close();
+
+		// Damage both of the broken user's files, so there's nothing left to rebuild it from
+		List<Path> brokenFiles;
+		try(Stream<Path> paths = Files.walk(contentFile.resolveSibling("users.json.cold"))){
+			brokenFiles = paths.filter(Files::isRegularFile).filter(path -> contains(path, "broken")).collect(Collectors.toList());
+		}
+		assertEquals(2, brokenFiles.size());
+		for(Path file : brokenFiles){
+			Files.write(file, "{\"echoId\":".getBytes(StandardCharsets.UTF_8));
+		}
+
+		dao = open();
+		assertNotNull(dao.getUserByEchoId("evicted"));
+		assertEquals(2, dao.getStoredContent().getUsers());
+		for(Path file : brokenFiles){
+			assertFalse(Files.exists(file));
+			assertTrue(Files.exists(file.resolveSibling(file.getFileName() + ".unreadable")));
+		}
+	}
+
+	// Local helper functions
+	/**
+	 * A user with one intent, last used an hour ago, uploaded to at that many minutes past the epoch
+	 */
+	private User idleUser(String echoId, int uploadMinute){
+		User user = dao.createUser(echoId);
+		IntentResponses response = new IntentResponses();
+		response.setIntentName("Hello");
+		response.setData(Collections.singletonMap("text", echoId));
+		user.addIntentResponse(response);
+		user.setCreationTime(Instant.now().minus(Duration.ofHours(1)));
+		user.setLastUploadTime(Instant.EPOCH.plus(Duration.ofMinutes(uploadMinute)));
+		dao.saveUser(user);
+		return user;
+	}
+
+	private void assertCounted(long users, long intents){
+		assertEquals(users, dao.getStoredContent().getUsers());
+		assertEquals(intents, dao.getStoredContent().getIntents());
+	}
+
+	private static boolean contains(Path file, String text){
+		try {
+			return new String(Files.readAllBytes(file), StandardCharsets.UTF_8).contains(text);
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	private static List<String> echoIds(List<User> users){
+		return users.stream().map(User::getEchoId).collect(Collectors.toList());
+	}
+
+	private UserDaoLocalImpl open(){
+		MainConfig mainConfig = new MainConfig();
+		mainConfig.setEchoDebuggerConfig(config);
+		UserDaoLocalImpl opened = new UserDaoLocalImpl(mainConfig, null);
+		opened.initialize();
+		assertTrue(opened.isInitialized());
+		return opened;
+	}
+
+	private Path rotatedJournal(){
+		return journalFile.resolveSibling("users.journal.compacting");
+	}
+
+	private long journalSize() throws IOException{
+		return Files.exists(journalFile) ? Files.size(journalFile) : 0;
+	}
+}
@@ -0,0 +1,171 @@
+package com.derpgroup.echodebugger.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.derpgroup.echodebugger.configuration.EchoDebuggerConfig;
+import com.derpgroup.echodebugger.configuration.MainConfig;
+
+public class UserDaoMVStoreImplTest {
+	private static final int USERS = 30;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private EchoDebuggerConfig config;
+	private Path contentFile;
+	private UserDaoMVStoreImpl dao;
+
+	@Before
+	public void setUp(){
+		contentFile = folder.getRoot().toPath().resolve("users.json");
+		config = new EchoDebuggerConfig();
+		config.setContentFile(contentFile.toString());
+		config.setMvStoreFile(folder.getRoot().toPath().resolve("users.mv").toString());
+		config.setGroupCommitWindowMillis(0L);
+	}
+
+	@After
+	public void tearDown() throws InterruptedException{
+		if(dao != null){
+			dao.stop();
+		}
+	}
+
+	@Test
+	public void usersAreImportedFromSegments(){
+		config.setSegmentCount(4);
+		writeLocalSnapshot();
+		assertTrue(Files.isDirectory(contentFile.resolveSibling("users.json.segments")));
+
+		dao = open();
+		assertAllUsersImported();
+	}
+
+	@Test
+	public void theImportFallsBackPastATruncatedSnapshot() throws IOException{
+		writeLocalSnapshot();
+		// An older generation with every user, then a newest one cut short
+		UserDaoLocalImpl local = openLocal();
+		local.saveUser(local.getUserByEchoId("echo0"));
+		local.saveUsersToFile();
+		local.close();
+		byte[] newest = Files.readAllBytes(contentFile);
+		Files.write(contentFile, Arrays.copyOf(newest, newest.length / 2));
+
+		dao = open();
+		assertAllUsersImported();
+	}
+
+	@Test
+	public void loadedUsersAreBounded() throws InterruptedException{
+		config.setHotUserLimit(10);
+		dao = open();
+		for(int i = 0; i < USERS; i++){
+			User user = dao.createUser("echo" + i);
+			user.setCreationTime(Instant.now().minus(Duration.ofHours(1)));
+			dao.saveUser(user);
+		}
+		dao.stop();
+
+		dao = open();
+		for(int i = 0; i < USERS; i++){
+			assertNotNull(dao.getUserByEchoId("echo" + i));
+		}
+		assertTrue(dao.getLoadedUserCount() <= 11);
+		dao.evictIdleUsers();
+		assertEquals(10, dao.getLoadedUserCount());
+		assertEquals(USERS, dao.getAllUserData().size());
+	}
+
+	@Test
+	public void recordedActivityIsWrittenByTheNextCommit() throws InterruptedException{
+		dao = open();
+		User user = dao.createUser("played");
+		user.incrementNumContentDownloads();
+		dao.recordActivity(user);
+		// Any later commit writes it, including the last one when stopping
+		dao.createUser("other");
+		user.incrementNumContentDownloads();
+		dao.recordActivity(user);
+		dao.stop();
+
+		dao = open();
+		assertEquals(2, dao.getUserByEchoId("played").getNumContentDownloads());
+	}
+
+	@Test
+	public void storedContentTotalsSurviveARestart() throws InterruptedException{
+		dao = open();
+		for(int i = 0; i < 3; i++){
+			User user = dao.createUser("echo" + i);
+			IntentResponses response = new IntentResponses();
+			response.setIntentName("Hello");
+			response.setData(Collections.singletonMap("text", "echo" + i));
+			user.addIntentResponse(response);
+			dao.saveUser(user);
+		}
+		dao.deleteIntent(dao.getUserByEchoId("echo1"), "Hello");
+		dao.deleteUser(dao.getUserByEchoId("echo2"));
+		StoredContent counted = dao.getStoredContent();
+		assertEquals(2, counted.getUsers());
+		assertEquals(1, counted.getIntents());
+		assertEquals(StoredContent.of(dao.getAllUserData()).getPayloadBytes(), counted.getPayloadBytes());
+		dao.stop();
+
+		dao = open();
+		assertEquals(counted.getIntents(), dao.getStoredContent().getIntents());
+		assertEquals(counted.getPayloadBytes(), dao.getStoredContent().getPayloadBytes());
+	}
+
+	// Local helper functions
+	private UserDaoMVStoreImpl open(){
+		MainConfig mainConfig = new MainConfig();
+		mainConfig.setEchoDebuggerConfig(config);
+		UserDaoMVStoreImpl opened = new UserDaoMVStoreImpl(mainConfig, null);
+		opened.initialize();
+		assertTrue(opened.isInitialized());
+		return opened;
+	}
+
+	private UserDaoLocalImpl openLocal(){
+		MainConfig mainConfig = new MainConfig();
+		mainConfig.setEchoDebuggerConfig(config);
+		UserDaoLocalImpl local = new UserDaoLocalImpl(mainConfig, null);
+		local.initialize();
+		return local;
+	}
+
+	private void writeLocalSnapshot(){
+		UserDaoLocalImpl local = openLocal();
+		for(int i = 0; i < USERS; i++){
+			local.createUser("echo" + i);
+		}
+		assertNotNull(local.saveUsersToFile());
+		local.close();
+	}
+
+	private void assertAllUsersImported(){
+		assertEquals(USERS, dao.getAllUserData().size());
+		for(int i = 0; i < USERS; i++){
+			User user = dao.getUserByEchoId("echo" + i);
+			assertNotNull(user);
+			assertEquals(user.getEchoId(), dao.getUserById(user.getId().toString()).getEchoId());
+		}
+	}
+}